@@ -14,6 +14,7 @@ public class Camera {
 
 	private Matrix4f cameraMatrix;
 	private Vector3f centerOfProjection, lookAtPoint, upVector;
+	private int version;
 	
 	
 	/**
@@ -39,7 +40,9 @@ public class Camera {
 	
 	/**
 	 * Return the camera matrix, i.e., the world-to-camera transform. For example, 
-	 * this is used by the renderer.
+	 * this is used by the renderer. The matrix must not be changed in place, 
+	 * because the scene manager would not notice it, see {@link #getVersion()}. 
+	 * Use {@link #setCameraMatrix(Matrix4f)} instead.
 	 * 
 	 * @return the 4x4 world-to-camera transform matrix
 	 */
@@ -54,6 +57,21 @@ public class Camera {
 	public void setCameraMatrix(Matrix4f m)
 	{
 		cameraMatrix.set(m);
+		version++;
+	}
+	
+	/**
+	 * Returns a number that changes whenever the camera matrix is set, so 
+	 * that data derived from it, like the planes of the viewing frustum in 
+	 * world space, can be cached. Changes made directly to the matrix 
+	 * returned by {@link #getCameraMatrix()} are not noticed and not 
+	 * supported.
+	 * 
+	 * @return the version of the camera matrix
+	 */
+	public int getVersion()
+	{
+		return version;
 	}
 	
 	/**
@@ -133,5 +151,6 @@ public class Camera {
 		} catch(Exception e){
 			System.err.println("Could not invert matrix!");
 		}
+		version++;
 	}
 }
@@ -14,6 +14,7 @@ import javax.vecmath.Matrix4f;
 public class Frustum {
 
 	private Matrix4f projectionMatrix;
+	private int version;
 	
 	/**
 	 * Construct a default viewing frustum. The frustum is given by a 
@@ -26,7 +27,9 @@ public class Frustum {
 	
 	/**
 	 * Return the 4x4 projection matrix, which is used for example by 
-	 * the renderer.
+	 * the renderer. The matrix must not be changed in place, because the 
+	 * scene manager would not notice it, see {@link #getVersion()}. Use 
+	 * {@link #setProjectionMatrix(Matrix4f)} instead.
 	 * 
 	 * @return the 4x4 projection matrix
 	 */
@@ -35,6 +38,28 @@ public class Frustum {
 		return projectionMatrix;
 	}
 	
+	/**
+	 * Set the 4x4 projection matrix.
+	 */
+	public void setProjectionMatrix(Matrix4f m)
+	{
+		projectionMatrix.set(m);
+		version++;
+	}
+	
+	/**
+	 * Returns a number that changes whenever the projection matrix is set, 
+	 * see {@link Camera#getVersion()}. Changes made directly to the matrix 
+	 * returned by {@link #getProjectionMatrix()} are not noticed and not 
+	 * supported.
+	 * 
+	 * @return the version of the projection matrix
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
 	/**
 	 * Creates the projection matrix in respect to given arguments.
 	 * @param nearPlane
@@ -1,8 +1,10 @@
 package jrtr;
 
+import java.util.Arrays;
 import java.util.Stack;
 
 import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
 import javax.vecmath.Vector4f;
 
 import java.util.Iterator;
@@ -15,16 +17,66 @@ public class GraphSceneManager implements SceneManagerInterface {
 	private Vector4f[] planeNormals;
 	private float[] d;
 	
+	/**
+	 * The world transformation of the parent of the root.
+	 */
+	private Matrix4f identity;
+	
+	private RenderList renderList;
+	private Node[] nodeStack;
+	private Matrix4f[] parentWorldStack;
+	private int[] planesStack;
+	
+	/**
+	 * The planes of the frustum in world coordinates are recomputed when the 
+	 * version of the camera or of the frustum changed.
+	 */
+	private int cameraVersion, frustumVersion;
+	private Matrix4f viewProjection;
+	
+	/**
+	 * The shapes the traversal reached, in traversal order, with their 
+	 * transformations and their bounding spheres in world coordinates. They 
+	 * are culled in one pass over the arrays after the traversal.
+	 */
+	private ShapeNode[] shapeNodes;
+	private Matrix4f[] objToWorlds;
+	private float[] centerX, centerY, centerZ, radii, margins, depths;
+	
+	/**
+	 * The planes of the frustum that bounding spheres are tested against, one 
+	 * bit per plane.
+	 */
+	private static final int ALL_PLANES = (1 << 6) - 1;
+	
+	/**
+	 * The planes of the nodes below a culled group, which are only traversed 
+	 * for their lights.
+	 */
+	private static final int CULLED = -1;
+	
+	/**
+	 * The counters of the last traversal, see {@link #getVisitedNodes()}.
+	 */
+	private int visitedNodes, culledNodes, acceptedNodes;
+	
 	public GraphSceneManager()
 	{
 		camera = new Camera();
 		frustum = new Frustum();
 		d = new float[6];
+		identity = new Matrix4f();
+		identity.setIdentity();
+		renderList = new RenderList();
+		nodeStack = new Node[16];
+		parentWorldStack = new Matrix4f[16];
+		planesStack = new int[16];
 		planeNormals = new Vector4f[]{new Vector4f(), new Vector4f(), new Vector4f(), new Vector4f(), new Vector4f(), new Vector4f()};
-		Matrix4f viewProjMat = new Matrix4f(frustum.getProjectionMatrix());
-		viewProjMat.invert();
-		viewProjMat.transpose();
-		createViewFrustumFromMatrix(viewProjMat);
+		cameraVersion = camera.getVersion() - 1;
+		viewProjection = new Matrix4f();
+		shapeNodes = new ShapeNode[0];
+		objToWorlds = new Matrix4f[0];
+		centerX = centerY = centerZ = radii = margins = depths = new float[0];
 	}
 	
 	public Camera getCamera()
@@ -53,71 +105,240 @@ public class GraphSceneManager implements SceneManagerInterface {
 	
 	public SceneManagerIterator iterator()
 	{
-		return new GraphSceneManagerItr();
+		fillRenderList(renderList);
+		return renderList.iterator();
 	}
 	
-	private class GraphSceneManagerItr implements SceneManagerIterator {
-		
-		private Stack<Node> stack;
-		private Stack<Matrix4f> transfStack;
+	/**
+	 * Traverses the scene graph depth first. The stack holds the nodes to visit, 
+	 * the world transformations of their parents and the planes of the frustum 
+	 * their bounding spheres still have to be tested against. The world 
+	 * transformations are cached by the {@link TransformGroup}s and 
+	 * {@link ShapeNode}s, so no matrices are multiplied for the parts of the 
+	 * scene that did not change. The bounding spheres of the {@link Group}s 
+	 * are updated first. A group with more than one child whose sphere is 
+	 * outside of a plane is culled with all nodes below it. If the sphere is 
+	 * inside of a plane, the nodes below it are not tested against that 
+	 * plane, and if it is inside of all planes, they are accepted without a 
+	 * test. The shapes are collected and culled after the traversal, see 
+	 * {@link #cullShapes(int)}. The lights are gathered in the same 
+	 * traversal, with the translation of their parents as their positions. 
+	 * A culled group that has lights below it is still traversed, with the 
+	 * planes set to {@link #CULLED}, but only for its lights. The stack is 
+	 * kept from frame to frame.
+	 */
+	public void fillRenderList(RenderList list)
+	{
+		list.clear();
+		visitedNodes = 0;
+		culledNodes = 0;
+		acceptedNodes = 0;
+		updatePlanes();
+		if(root instanceof Group)
+			((Group)root).updateBounds(identity);
 		
-		public GraphSceneManagerItr()
-		{
-			stack = new Stack<Node>();
-			stack.push(root);
-			
-			transfStack = new Stack<Matrix4f>();
-			transfStack.push(root.getTransformation());
+		int top = 0, nShapes = 0;
+		nodeStack[top] = root;
+		parentWorldStack[top] = identity;
+		planesStack[top++] = ALL_PLANES;
+		while(top > 0){
+			top--;
+			Node element = nodeStack[top];
+			Matrix4f parentWorld = parentWorldStack[top];
+			int planes = planesStack[top];
+			visitedNodes++;
+			if(element instanceof LightNode){
+				Light light = ((LightNode)element).get3dObject();
+				if(light != null)
+					list.addLight(light, parentWorld.m03, parentWorld.m13, parentWorld.m23);
+			}
+			else if(planes == CULLED){
+				// only the lights below a culled group are gathered
+				if(element instanceof Group && ((Group)element).hasLights)
+					top = pushChildren((Group)element, parentWorld, planes, top);
+			}
+			else if(element instanceof ShapeNode){
+				ShapeNode shapeNode = (ShapeNode)element;
+				if(nShapes == shapeNodes.length)
+					growShapes();
+				shapeNodes[nShapes] = shapeNode;
+				objToWorlds[nShapes] = shapeNode.getObjectToWorld(parentWorld);
+				centerX[nShapes] = shapeNode.worldX;
+				centerY[nShapes] = shapeNode.worldY;
+				centerZ[nShapes] = shapeNode.worldZ;
+				// a sphere without planes to test passes all of them
+				if(planes == 0){
+					acceptedNodes++;
+					radii[nShapes] = Float.POSITIVE_INFINITY;
+				}
+				else
+					radii[nShapes] = shapeNode.worldRadius;
+				nShapes++;
+			}
+			else if(element instanceof Group){
+				Group group = (Group)element;
+				if(planes == 0)
+					acceptedNodes++;
+				// the sphere of a group with one child is the sphere of the 
+				// child, so it is not tested twice
+				else if(group.getChildren().size() > 1){
+					planes = cullSphere(group.boundsX, group.boundsY, group.boundsZ, group.boundsRadius, planes);
+					if(planes == CULLED){
+						culledNodes++;
+						if(!group.hasLights)
+							continue;
+					}
+				}
+				top = pushChildren(group, parentWorld, planes, top);
+			}
 		}
 		
-		public boolean hasNext()
+		cullShapes(nShapes);
+		for(int i=0; i<nShapes; i++){
+			if(margins[i] >= 0)
+				list.add(shapeNodes[i].get3dObject(), objToWorlds[i], depths[i]);
+			else
+				culledNodes++;
+		}
+	}
+	
+	/**
+	 * Pushes the children of a group onto the stack of the traversal.
+	 * @return the new top of the stack.
+	 */
+	private int pushChildren(Group group, Matrix4f parentWorld, int planes, int top)
+	{
+		Matrix4f world = group.getWorldTransformation(parentWorld);
+		for(Node node : group.getChildren()){
+			if(top == nodeStack.length){
+				nodeStack = Arrays.copyOf(nodeStack, 2*top);
+				parentWorldStack = Arrays.copyOf(parentWorldStack, 2*top);
+				planesStack = Arrays.copyOf(planesStack, 2*top);
+			}
+			nodeStack[top] = node;
+			parentWorldStack[top] = world;
+			planesStack[top++] = planes;
+		}
+		return top;
+	}
+	
+	/**
+	 * Tests the bounding spheres of the collected shapes against all planes 
+	 * and computes their depths, which are the sort keys of the render list. 
+	 * The loops run over the arrays without branches, so the JIT compiler can 
+	 * vectorize them. A sphere is outside of the frustum if its margin, i.e., 
+	 * the smallest signed distance of the sphere to a plane, is negative.
+	 */
+	private void cullShapes(int n)
+	{
+		Arrays.fill(margins, 0, n, Float.POSITIVE_INFINITY);
+		for(int p=0; p<6; p++)
 		{
-			return !stack.isEmpty();
+			float nx = planeNormals[p].x, ny = planeNormals[p].y, nz = planeNormals[p].z, pd = d[p];
+			for(int i=0; i<n; i++)
+				margins[i] = Math.min(margins[i], nx*centerX[i] + ny*centerY[i] + nz*centerZ[i] + pd + radii[i]);
 		}
 		
-		public RenderItem next()
+		// the camera looks along -z, so the depth is -z
+		Matrix4f c = camera.getCameraMatrix();
+		float m20 = c.m20, m21 = c.m21, m22 = c.m22, m23 = c.m23;
+		for(int i=0; i<n; i++)
+			depths[i] = -(m20*centerX[i] + m21*centerY[i] + m22*centerZ[i] + m23);
+	}
+	
+	private void growShapes()
+	{
+		int capacity = Math.max(16, 2*shapeNodes.length);
+		shapeNodes = Arrays.copyOf(shapeNodes, capacity);
+		objToWorlds = Arrays.copyOf(objToWorlds, capacity);
+		centerX = Arrays.copyOf(centerX, capacity);
+		centerY = Arrays.copyOf(centerY, capacity);
+		centerZ = Arrays.copyOf(centerZ, capacity);
+		radii = Arrays.copyOf(radii, capacity);
+		margins = new float[capacity];
+		depths = new float[capacity];
+	}
+	
+	/**
+	 * Tests a bounding sphere in world coordinates against the planes of the 
+	 * frustum.
+	 * @param planes the planes to test, one bit per plane.
+	 * @return {@link #CULLED} if the sphere is outside of one of the planes, 
+	 * otherwise the planes the sphere is not completely inside of.
+	 */
+	private int cullSphere(float x, float y, float z, float radius, int planes)
+	{
+		if(radius < 0)
+			return CULLED;
+		for(int i=0; i<6; i++)
 		{
-			Node element = stack.pop();
-			Matrix4f parentTransf = transfStack.pop();
-			while(!(element instanceof ShapeNode)){	
-				if(element instanceof Group){
-					for(Node node : element.getChildren()){
-						stack.push(node);
-						Matrix4f newParentTransf = new Matrix4f();
-						newParentTransf.setIdentity();
-						newParentTransf.mul(parentTransf, node.getTransformation());
-						transfStack.push(newParentTransf);
-					};
-				}
-				if(!stack.isEmpty()){
-					element = stack.pop();
-					parentTransf = transfStack.pop();
-				}
-				else // if stack ended with a non ShapeNode, break
-					break;
-			}
-			Matrix4f objToWorld = (Matrix4f)parentTransf.clone();
-			Matrix4f objToCam = new Matrix4f(camera.getCameraMatrix());
-//			objToCam.invert();
-			objToCam.mul(objToWorld);
-			objToWorld.mul(((Shape)element.get3dObject()).getTransformation());
-//			objToCam = objToWorld;
-			return new RenderItem(((ShapeNode)element).sphereIsInFrustum(planeNormals, d, objToCam) ? (Shape)element.get3dObject() : null, objToWorld);
+			if((planes & (1 << i)) == 0)
+				continue;
+			float distance = planeNormals[i].x*x + planeNormals[i].y*y + planeNormals[i].z*z + d[i];
+			if(distance < -radius)
+				return CULLED;
+			if(distance > radius)
+				planes &= ~(1 << i);
 		}
+		return planes;
+	}
+	
+	/**
+	 * Recomputes the planes of the frustum in world coordinates from the 
+	 * view-projection matrix, if the camera or the frustum changed.
+	 */
+	private void updatePlanes()
+	{
+		if(camera.getVersion() == cameraVersion && frustum.getVersion() == frustumVersion)
+			return;
+		cameraVersion = camera.getVersion();
+		frustumVersion = frustum.getVersion();
+		viewProjection.mul(frustum.getProjectionMatrix(), camera.getCameraMatrix());
+		viewProjection.transpose();
+		createViewFrustumFromMatrix(viewProjection);
+	}
+	
+	/**
+	 * @return the number of nodes the last traversal visited, see 
+	 * {@link #fillRenderList(RenderList)}.
+	 */
+	public int getVisitedNodes()
+	{
+		return visitedNodes;
+	}
+	
+	/**
+	 * @return the number of nodes the last traversal culled. The nodes below 
+	 * a culled group are not counted as culled. They are not visited, except 
+	 * for the lights below them: the children of the groups with lights below 
+	 * them are visited to gather the lights, and counted as visited.
+	 */
+	public int getCulledNodes()
+	{
+		return culledNodes;
+	}
+	
+	/**
+	 * @return the number of nodes the last traversal accepted without a test, 
+	 * because a group above them was completely inside of the frustum.
+	 */
+	public int getAcceptedNodes()
+	{
+		return acceptedNodes;
 	}
 	
 	private class GraphSceneLightItr implements Iterator<Light>{
 		
 		private Stack<Node> stack;
-		private Stack<Matrix4f> transfStack;
+		private Stack<Matrix4f> parentWorldStack;
 		
 		public GraphSceneLightItr()
 		{
 			stack = new Stack<Node>();
 			stack.push(root);
 			
-			transfStack = new Stack<Matrix4f>();
-			transfStack.push(root.getTransformation());
+			parentWorldStack = new Stack<Matrix4f>();
+			parentWorldStack.push(identity);
 		}
 		
 		public boolean hasNext()
@@ -128,20 +349,13 @@ public class GraphSceneManager implements SceneManagerInterface {
 		public Light next()
 		{			
 			Node element = stack.pop();
-			Matrix4f parentTransf = transfStack.pop();
+			Matrix4f parentWorld = parentWorldStack.pop();
 			while(!(element instanceof LightNode)){
-				if(element instanceof Group){
-					for(Node node : element.getChildren()){
-						stack.push(node);
-						Matrix4f newParentTransf = new Matrix4f();
-						newParentTransf.setIdentity();
-						newParentTransf.mul(parentTransf, node.getTransformation());
-						transfStack.push(newParentTransf);
-					};
-				}
+				if(element instanceof Group)
+					pushChildren(element, parentWorld, stack, parentWorldStack);
 				if(!stack.isEmpty()){
 					element = stack.pop();
-					parentTransf = transfStack.pop();
+					parentWorld = parentWorldStack.pop();
 				} else // if stack ended with a non LightNode, break
 					return null;
 			}
@@ -149,15 +363,26 @@ public class GraphSceneManager implements SceneManagerInterface {
 			Light light = (Light)element.get3dObject();
 			
 			light = light.clone();
-			light.position.x = parentTransf.m03;
-			light.position.y = parentTransf.m13;
-			light.position.z = parentTransf.m23;
+			light.position = new Vector3f(parentWorld.m03, parentWorld.m13, parentWorld.m23);
 			
 			return light;
 		}
 	}
 	
-	// calculate the view frustum from the view-projection matrix
+	/**
+	 * Pushes the children of a group onto the stacks of a traversal, together 
+	 * with the world transformation of the group.
+	 */
+	private static void pushChildren(Node group, Matrix4f parentWorld, Stack<Node> stack, Stack<Matrix4f> parentWorldStack)
+	{
+		Matrix4f world = group instanceof TransformGroup ? ((TransformGroup)group).getWorldTransformation(parentWorld) : parentWorld;
+		for(Node node : group.getChildren()){
+			stack.push(node);
+			parentWorldStack.push(world);
+		}
+	}
+	
+	// calculate the view frustum from the transposed view-projection matrix
 	// (projection-matrix -> view-space; view-projection-matrix -> world-space etc...)
 	private void createViewFrustumFromMatrix(Matrix4f viewToCameraSpaceProjMat)
 	{
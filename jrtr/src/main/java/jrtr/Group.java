@@ -2,9 +2,35 @@ package jrtr;
 
 import java.util.LinkedList;
 
+import javax.vecmath.Matrix4f;
+
+/**
+ * A node with children. A group stores a bounding sphere in world 
+ * coordinates that contains the bounding spheres of all shapes below it, 
+ * which the {@link GraphSceneManager} uses to cull whole subtrees. The 
+ * sphere is recomputed only if a node below the group changed, i.e., if a 
+ * node was added or removed, or if a transformation or a shape was set, see 
+ * {@link TransformGroup#setTransformation(Matrix4f)}, 
+ * {@link ShapeNode#setShape(Shape)} and 
+ * {@link ShapeNode#transformationChanged()}.
+ */
 public abstract class Group implements Node {
 	
 	protected LinkedList<Node> children;
+	Group parent;
+	
+	/**
+	 * The bounding sphere in world coordinates. The radius is negative if 
+	 * there is no shape below the group.
+	 */
+	float boundsX, boundsY, boundsZ, boundsRadius = -1;
+	boolean boundsDirty = true;
+	
+	/**
+	 * Whether there is a {@link LightNode} below the group. The lights of a 
+	 * group are gathered even if the group is culled.
+	 */
+	boolean hasLights;
 	
 	public Group() {
 		children = new LinkedList<Node>();
@@ -12,6 +38,9 @@ public abstract class Group implements Node {
 	
 	public void addNode(Node node){
 		children.add(node);
+		setParent(node, this);
+		invalidateWorldTransformations(node);
+		invalidateBounds(this);
 	}
 	
 	/**
@@ -20,7 +49,11 @@ public abstract class Group implements Node {
 	 * @return true if the node was successfully removed.
 	 */
 	public boolean removeNode(Node node){
-		return children.remove(node);
+		if(!children.remove(node))
+			return false;
+		setParent(node, null);
+		invalidateBounds(this);
+		return true;
 	}
 	
 	@Override
@@ -32,4 +65,114 @@ public abstract class Group implements Node {
 	public Object get3dObject() {
 		return null;
 	}
+	
+	/**
+	 * Returns the world transformation of this group. A group that is not a 
+	 * transform group has the world transformation of its parent.
+	 * @param parentWorld the world transformation of the parent.
+	 */
+	Matrix4f getWorldTransformation(Matrix4f parentWorld) {
+		return parentWorld;
+	}
+	
+	/**
+	 * Recomputes the bounding sphere of this group and of the groups below 
+	 * it, and whether there are lights below them, if they are outdated.
+	 * @param parentWorld the world transformation of the parent.
+	 */
+	void updateBounds(Matrix4f parentWorld) {
+		if(!boundsDirty)
+			return;
+		Matrix4f world = getWorldTransformation(parentWorld);
+		boundsRadius = -1;
+		hasLights = false;
+		for(Node node : children){
+			if(node instanceof Group){
+				Group group = (Group)node;
+				group.updateBounds(world);
+				addSphere(group.boundsX, group.boundsY, group.boundsZ, group.boundsRadius);
+				hasLights |= group.hasLights;
+			}
+			else if(node instanceof ShapeNode){
+				ShapeNode shapeNode = (ShapeNode)node;
+				shapeNode.getObjectToWorld(world);
+				addSphere(shapeNode.worldX, shapeNode.worldY, shapeNode.worldZ, shapeNode.worldRadius);
+			}
+			else if(node instanceof LightNode)
+				hasLights = true;
+		}
+		boundsDirty = false;
+	}
+	
+	/**
+	 * Grows the bounding sphere to the smallest sphere that contains it and 
+	 * the given sphere.
+	 */
+	private void addSphere(float x, float y, float z, float radius) {
+		if(radius < 0)
+			return;
+		if(boundsRadius < 0){
+			boundsX = x;
+			boundsY = y;
+			boundsZ = z;
+			boundsRadius = radius;
+			return;
+		}
+		float dx = x - boundsX;
+		float dy = y - boundsY;
+		float dz = z - boundsZ;
+		float distance = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if(distance + radius <= boundsRadius)
+			return;
+		if(distance + boundsRadius <= radius){
+			boundsX = x;
+			boundsY = y;
+			boundsZ = z;
+			boundsRadius = radius;
+			return;
+		}
+		float newRadius = (distance + boundsRadius + radius)/2;
+		float s = (newRadius - boundsRadius)/distance;
+		boundsX += s*dx;
+		boundsY += s*dy;
+		boundsZ += s*dz;
+		// slightly larger, so that rounding does not make the sphere too small
+		boundsRadius = newRadius*1.0001f;
+	}
+	
+	static void setParent(Node node, Group parent){
+		if(node instanceof Group)
+			((Group)node).parent = parent;
+		else if(node instanceof Leaf)
+			((Leaf)node).parent = parent;
+	}
+	
+	/**
+	 * Marks the bounding spheres of a group and of all groups above it as 
+	 * outdated.
+	 */
+	static void invalidateBounds(Group group){
+		// if a group is outdated, so are the groups above it
+		while(group != null && !group.boundsDirty){
+			group.boundsDirty = true;
+			group = group.parent;
+		}
+	}
+	
+	/**
+	 * Marks the cached world transformations and bounding spheres of a node 
+	 * and of all nodes below it as outdated, so they are recomputed in the 
+	 * next traversal.
+	 */
+	static void invalidateWorldTransformations(Node node){
+		if(node instanceof TransformGroup)
+			((TransformGroup)node).worldDirty = true;
+		else if(node instanceof ShapeNode)
+			((ShapeNode)node).worldDirty = true;
+		if(node instanceof Group){
+			((Group)node).boundsDirty = true;
+			for(Node child : node.getChildren())
+				invalidateWorldTransformations(child);
+		}
+	}
 }
@@ -6,6 +6,8 @@ import javax.vecmath.Matrix4f;
 
 public abstract class Leaf implements Node {
 	
+	Group parent;
+	
 	@Override
 	public LinkedList<Node> getChildren() {
 		return null;
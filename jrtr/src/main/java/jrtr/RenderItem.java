@@ -26,6 +26,15 @@ public class RenderItem {
 		return t;
 	}
 	
+	/**
+	 * Lets the {@link RenderList} reuse the item for another shape.
+	 */
+	void set(Shape shape, Matrix4f t)
+	{
+		this.shape = shape;
+		this.t = t;
+	}
+	
 	private Shape shape;
 	private Matrix4f t;
 }
@@ -0,0 +1,128 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * Orders the {@link RenderItem}s of a frame from front to back, so that
+ * the depth test of a renderer rejects as many hidden fragments as
+ * possible. Opaque items are sorted by the view space depth of
+ * the center of their bounding sphere (see
+ * {@link Shape#getBoundingSphereCenter()}), which is the sort key of a
+ * {@link RenderList}. Items with an alpha map are not
+ * opaque; they are kept in traversal order and drawn after the opaque ones.
+ * <p>
+ * The depths are quantized to {@link #KEY_BITS} bit keys, which are sorted
+ * with a radix sort in two passes of 8 bits, so sorting takes linear time.
+ * The sort is stable, items with the same key stay in traversal order. The
+ * arrays are kept from frame to frame, so sorting does not allocate memory
+ * once they are large enough.
+ */
+public class RenderItemSorter {
+	
+	private static final int KEY_BITS = 16;
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	
+	private RenderItem[] items = new RenderItem[0];
+	private float[] depths = new float[0];
+	private int[] keys = new int[0];
+	private int[] order = new int[0], swap = new int[0];
+	private int[] counts = new int[RADIX];
+	private int nItems, nOpaque;
+	
+	/**
+	 * Sorts the items of a render list by their sort keys. The list must not
+	 * be changed until the items are drawn.
+	 *
+	 * @param list the items of the frame, in traversal order
+	 * @return the number of items, see {@link #get(int)}
+	 */
+	public int sort(RenderList list)
+	{
+		nItems = 0;
+		nOpaque = 0;
+		float minDepth = Float.POSITIVE_INFINITY, maxDepth = Float.NEGATIVE_INFINITY;
+		ensureCapacity(list.size());
+		for(int i=0; i<list.size(); i++)
+		{
+			RenderItem r = list.get(i);
+			items[nItems] = r;
+			Material material = r.getShape().getMaterial();
+			if(material == null || material.alphaMap == null)
+			{
+				float depth = list.getSortKey(i);
+				depths[nItems] = depth;
+				minDepth = Math.min(minDepth, depth);
+				maxDepth = Math.max(maxDepth, depth);
+				nOpaque++;
+			}
+			else
+				depths[nItems] = Float.NaN;
+			nItems++;
+		}
+		
+		// the opaque items first, the others after them in traversal order
+		int o = 0, t = nOpaque;
+		float scale = maxDepth > minDepth ? ((1 << KEY_BITS) - 1)/(maxDepth - minDepth) : 0;
+		for(int i=0; i<nItems; i++)
+		{
+			if(Float.isNaN(depths[i]))
+				order[t++] = i;
+			else
+			{
+				keys[i] = (int)((depths[i] - minDepth)*scale);
+				order[o++] = i;
+			}
+		}
+		
+		for(int shift=0; shift<KEY_BITS; shift+=RADIX_BITS)
+			radixPass(shift);
+		
+		return nItems;
+	}
+	
+	/**
+	 * @return the i-th item of the last call to
+	 * {@link #sort(RenderList)}, in drawing order.
+	 */
+	public RenderItem get(int i)
+	{
+		return items[order[i]];
+	}
+	
+	/**
+	 * Sorts the opaque items in {@link #order} stably by one digit of their
+	 * keys.
+	 */
+	private void radixPass(int shift)
+	{
+		Arrays.fill(counts, 0);
+		for(int i=0; i<nOpaque; i++)
+			counts[(keys[order[i]] >>> shift) & (RADIX-1)]++;
+		int sum = 0;
+		for(int d=0; d<RADIX; d++)
+		{
+			int c = counts[d];
+			counts[d] = sum;
+			sum += c;
+		}
+		for(int i=0; i<nOpaque; i++)
+		{
+			int item = order[i];
+			swap[counts[(keys[item] >>> shift) & (RADIX-1)]++] = item;
+		}
+		System.arraycopy(swap, 0, order, 0, nOpaque);
+	}
+	
+	private void ensureCapacity(int n)
+	{
+		if(n <= items.length)
+			return;
+		int capacity = Math.max(n, 2*items.length);
+		items = Arrays.copyOf(items, capacity);
+		depths = Arrays.copyOf(depths, capacity);
+		keys = new int[capacity];
+		order = new int[capacity];
+		swap = new int[capacity];
+	}
+}
@@ -0,0 +1,179 @@
+package jrtr;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+/**
+ * The visible shapes of a frame, filled by
+ * {@link SceneManagerInterface#fillRenderList(RenderList)}. Every record
+ * holds a shape, its transformation to world coordinates and a sort key,
+ * which is the depth of the center of the bounding sphere of the shape in
+ * camera coordinates, i.e., the distance along the viewing direction. The
+ * {@link RenderItem}s of the records are reused from frame to frame, so
+ * filling a list does not allocate memory once it is large enough. The
+ * items and the matrices they refer to are only valid until the list is
+ * filled again.
+ * <p>
+ * The list also holds the lights of the frame, which the scene manager 
+ * gathers in the same traversal, so renderers do not have to traverse the 
+ * scene again for every shape. Every light is a copy of the light of the 
+ * scene with its position in world coordinates. The copies are reused from 
+ * frame to frame as well.
+ */
+public class RenderList {
+	
+	private RenderItem[] items = new RenderItem[0];
+	private Matrix4f[] copies = new Matrix4f[0];
+	private float[] sortKeys = new float[0];
+	private int size;
+	private Light[] lights = new Light[0];
+	private int lightCount;
+	
+	/**
+	 * Removes all records. The items are kept for the next frame.
+	 */
+	public void clear()
+	{
+		size = 0;
+		lightCount = 0;
+	}
+	
+	/**
+	 * Appends a record.
+	 *
+	 * @param shape the shape, not null
+	 * @param t the transformation from object to world coordinates, which
+	 * is not copied
+	 * @param sortKey the depth of the shape in camera coordinates
+	 */
+	public void add(Shape shape, Matrix4f t, float sortKey)
+	{
+		if(size == items.length)
+		{
+			int capacity = Math.max(16, 2*items.length);
+			items = Arrays.copyOf(items, capacity);
+			sortKeys = Arrays.copyOf(sortKeys, capacity);
+			for(int i=size; i<capacity; i++)
+				items[i] = new RenderItem(null, null);
+		}
+		items[size].set(shape, t);
+		sortKeys[size] = sortKey;
+		size++;
+	}
+	
+	/**
+	 * Replaces the transformations of the records by copies that the list 
+	 * owns, so that the records stay valid when the scene changes. The 
+	 * copies are reused from frame to frame.
+	 */
+	public void copyTransformations()
+	{
+		if(copies.length < size)
+		{
+			int n = copies.length;
+			copies = Arrays.copyOf(copies, items.length);
+			for(int i=n; i<copies.length; i++)
+				copies[i] = new Matrix4f();
+		}
+		for(int i=0; i<size; i++)
+		{
+			copies[i].set(items[i].getT());
+			items[i].set(items[i].getShape(), copies[i]);
+		}
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public RenderItem get(int i)
+	{
+		return items[i];
+	}
+	
+	public float getSortKey(int i)
+	{
+		return sortKeys[i];
+	}
+	
+	/**
+	 * Appends a light. The properties of the light are shared with the copy, 
+	 * except for the position.
+	 *
+	 * @param light the light, not null
+	 * @param x the x coordinate of the light in world coordinates
+	 * @param y the y coordinate of the light in world coordinates
+	 * @param z the z coordinate of the light in world coordinates
+	 */
+	public void addLight(Light light, float x, float y, float z)
+	{
+		if(lightCount == lights.length)
+		{
+			int capacity = Math.max(8, 2*lights.length);
+			lights = Arrays.copyOf(lights, capacity);
+			for(int i=lightCount; i<capacity; i++)
+			{
+				lights[i] = new Light();
+				lights[i].position = new Vector3f();
+			}
+		}
+		Light copy = lights[lightCount++];
+		copy.direction = light.direction;
+		copy.type = light.type;
+		copy.diffuse = light.diffuse;
+		copy.ambient = light.ambient;
+		copy.specular = light.specular;
+		copy.attenuation = light.attenuation;
+		copy.spotDirection = light.spotDirection;
+		copy.spotExponent = light.spotExponent;
+		copy.spotCutoff = light.spotCutoff;
+		copy.position.set(x, y, z);
+	}
+	
+	public int getLightCount()
+	{
+		return lightCount;
+	}
+	
+	public Light getLight(int i)
+	{
+		return lights[i];
+	}
+	
+	/**
+	 * @return an iterator over the lights, for code that takes the lights 
+	 * of a scene as an iterator.
+	 */
+	public Iterator<Light> lightIterator()
+	{
+		return Arrays.asList(lights).subList(0, lightCount).iterator();
+	}
+	
+	/**
+	 * @return an iterator over the records, for code that still traverses
+	 * scenes with a {@link SceneManagerIterator}.
+	 */
+	public SceneManagerIterator iterator()
+	{
+		return new RenderListItr();
+	}
+	
+	private class RenderListItr implements SceneManagerIterator {
+		
+		private int next;
+		
+		public boolean hasNext()
+		{
+			return next < size;
+		}
+		
+		public RenderItem next()
+		{
+			return items[next++];
+		}
+	}
+}
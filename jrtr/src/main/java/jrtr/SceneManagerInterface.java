@@ -4,7 +4,7 @@ import java.util.Iterator;
 
 /**
  * An interface declaration for scene managers. Scene managers 
- * need to provide an iterator to traverse through all objects in the
+ * need to provide a {@link RenderList} of all objects in the
  * scene. The interface does not specify how objects are added
  * to the scene, since this may differ based on the implementation
  * of the interface. Scene managers also need to store a {@link Camera}
@@ -13,12 +13,24 @@ import java.util.Iterator;
 public interface SceneManagerInterface {
 
 	/**
-	 * @return an iterator to traverse the scene.
+	 * Fills the list with the shapes that may be visible in the current 
+	 * frame, in traversal order, and with the lights of the scene. The list 
+	 * is cleared first. Renderers keep their list from frame to frame, so 
+	 * traversing the scene does not allocate memory.
+	 */
+	public void fillRenderList(RenderList list);
+	
+	/**
+	 * @return an iterator to traverse the scene. It iterates over a render 
+	 * list that the scene manager fills, so it is only valid until the next 
+	 * call.
 	 */
 	public SceneManagerIterator iterator();
 
 	/**
-	 * @return an iterator to access the lights in the scene.
+	 * @return an iterator to access the lights in the scene. Renderers use 
+	 * the lights of the {@link RenderList} instead, which are gathered once 
+	 * per frame.
 	 */
 	public Iterator<Light> lightIterator();
 	
@@ -3,15 +3,49 @@ package jrtr;
 import javax.vecmath.Matrix4f;
 import javax.vecmath.Vector4f;
 
+/**
+ * A leaf that holds a shape. The node caches the transformation of the 
+ * shape to world coordinates and its bounding sphere in world coordinates, 
+ * and the groups above it cache bounding spheres that contain it. Changing 
+ * the transformation of the shape, in place or with 
+ * {@link Shape#setTransformation(Matrix4f)}, is therefore not noticed by 
+ * itself: call {@link #transformationChanged()} on every node that holds 
+ * the shape afterwards, otherwise the shape may be culled with its old 
+ * bounds.
+ */
 public class ShapeNode extends Leaf {
 	private Shape shape;
 	
+	/**
+	 * The cached transformation from the object coordinates of the shape to 
+	 * world coordinates.
+	 */
+	private Matrix4f objectToWorld = new Matrix4f();
+	boolean worldDirty = true;
+	
+	/**
+	 * The bounding sphere of the shape in world coordinates, computed 
+	 * together with the transformation to world coordinates.
+	 */
+	float worldX, worldY, worldZ, worldRadius;
+	
 	public ShapeNode(Shape shape) {
 		this.shape = shape;
 	}
 	
 	public void setShape(Shape shape){
 		this.shape = shape;
+		transformationChanged();
+	}
+	
+	/**
+	 * Marks the cached transformation and bounds of the node and the bounds 
+	 * of the groups above it as outdated. Call this after changing the 
+	 * transformation of the shape.
+	 */
+	public void transformationChanged(){
+		worldDirty = true;
+		Group.invalidateBounds(parent);
 	}
 	
 	@Override
@@ -19,27 +53,40 @@ public class ShapeNode extends Leaf {
 		return shape;
 	}
 	
-	public boolean sphereIsInFrustum(Vector4f[] planeNormals, float[] d, Matrix4f objectToWorldCamera)
-	{
-		Vector4f center = (Vector4f)shape.getBoundingSphereCenter().clone();
-		objectToWorldCamera.transform(center);
-		float radius = shape.getBoundingSphereRadius();
-		
-	    for(int i=0; i<6; i++)
-	    {
-	        if(signedDistanceToPoint(center, planeNormals[i], d[i]) < -radius)
-	        {
-	            return false;
-	        }
-	    }
-	    return true;
+	/**
+	 * Returns the transformation from the object coordinates of the shape to 
+	 * world coordinates, i.e., the world transformation of the parent times the 
+	 * transformation of the shape. It is recomputed only if the parent changed, 
+	 * see {@link TransformGroup#setTransformation(Matrix4f)}, or if the node 
+	 * was told that the transformation of the shape changed, see 
+	 * {@link #transformationChanged()}.
+	 * @param parentWorld the world transformation of the parent.
+	 */
+	Matrix4f getObjectToWorld(Matrix4f parentWorld) {
+		if(worldDirty)
+			updateObjectToWorld(parentWorld);
+		return objectToWorld;
 	}
 	
-	private float signedDistanceToPoint(Vector4f pt, Vector4f normal, float d)
-	{
-		assert normal.length() == 1;
-		
-	    return normal.dot(pt) + d;
+	private void updateObjectToWorld(Matrix4f parentWorld) {
+		objectToWorld.mul(parentWorld, shape.getTransformation());
+		Vector4f c = shape.getBoundingSphereCenter();
+		Matrix4f m = objectToWorld;
+		worldX = m.m00*c.x + m.m01*c.y + m.m02*c.z + m.m03*c.w;
+		worldY = m.m10*c.x + m.m11*c.y + m.m12*c.z + m.m13*c.w;
+		worldZ = m.m20*c.x + m.m21*c.y + m.m22*c.z + m.m23*c.w;
+		worldRadius = shape.getBoundingSphereRadius()*getMaximumScale(objectToWorld);
+		worldDirty = false;
 	}
-
-}
\ No newline at end of file
+	
+	/**
+	 * @return the largest factor by which the transformation scales lengths, 
+	 * i.e., the length of its longest column.
+	 */
+	private static float getMaximumScale(Matrix4f m) {
+		float x = m.m00*m.m00 + m.m10*m.m10 + m.m20*m.m20;
+		float y = m.m01*m.m01 + m.m11*m.m11 + m.m21*m.m21;
+		float z = m.m02*m.m02 + m.m12*m.m12 + m.m22*m.m22;
+		return (float)Math.sqrt(Math.max(x, Math.max(y, z)));
+	}
+}
@@ -1,25 +1,31 @@
 package jrtr;
 
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.ArrayList;
 import java.util.Iterator;
 
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector4f;
+
 /**
- * A simple scene manager that stores objects and lights in linked lists.
+ * A simple scene manager that stores objects and lights in lists.
  */
 public class SimpleSceneManager implements SceneManagerInterface {
 
-	private LinkedList<Shape> shapes;
-	private LinkedList<Light> lights;
+	private ArrayList<Shape> shapes;
+	private ArrayList<Light> lights;
 	private Camera camera;
 	private Frustum frustum;
+	private RenderList renderList;
+	private Vector4f center;
 	
 	public SimpleSceneManager()
 	{
-		shapes = new LinkedList<Shape>();
-		lights = new LinkedList<Light>();
+		shapes = new ArrayList<Shape>();
+		lights = new ArrayList<Light>();
 		camera = new Camera();
 		frustum = new Frustum();
+		renderList = new RenderList();
+		center = new Vector4f();
 	}
 	
 	public Camera getCamera()
@@ -47,34 +53,33 @@ public class SimpleSceneManager implements SceneManagerInterface {
 		return lights.iterator();
 	}
 	
-	public SceneManagerIterator iterator()
+	public void fillRenderList(RenderList list)
 	{
-		return new SimpleSceneManagerItr(this);
-	}
-	
-	private class SimpleSceneManagerItr implements SceneManagerIterator {
-		
-		public SimpleSceneManagerItr(SimpleSceneManager sceneManager)
-		{
-			itr = sceneManager.shapes.listIterator(0);
-		}
-		
-		public boolean hasNext()
+		list.clear();
+		Matrix4f camera = this.camera.getCameraMatrix();
+		for(int i=0; i<shapes.size(); i++)
 		{
-			return itr.hasNext();
+			Shape shape = shapes.get(i);
+			// Here the transformation in the render list is simply the 
+			// transformation matrix of the shape. More sophisticated 
+			// scene managers will set the transformation differently.
+			Matrix4f t = shape.getTransformation();
+			t.transform(shape.getBoundingSphereCenter(), center);
+			// the camera looks along -z, so the depth is -z
+			float depth = -(camera.m20*center.x + camera.m21*center.y + camera.m22*center.z + camera.m23*center.w);
+			list.add(shape, t, depth);
 		}
-		
-		public RenderItem next()
+		for(int i=0; i<lights.size(); i++)
 		{
-			Shape shape = itr.next();
-			// Here the transformation in the RenderItem is simply the 
-			// transformation matrix of the shape. More sophisticated 
-			// scene managers will set the transformation for the 
-			// RenderItem differently.
-			return new RenderItem(shape, shape.getTransformation());
+			Light light = lights.get(i);
+			list.addLight(light, light.position.x, light.position.y, light.position.z);
 		}
-		
-		ListIterator<Shape> itr;
+	}
+	
+	public SceneManagerIterator iterator()
+	{
+		fillRenderList(renderList);
+		return renderList.iterator();
 	}
 	
 }
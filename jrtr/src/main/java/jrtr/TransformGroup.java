@@ -3,8 +3,20 @@ package jrtr;
 import javax.vecmath.Matrix4f;
 import javax.vecmath.Vector3f;
 
+/**
+ * A group that transforms its children. Besides its own transformation, a 
+ * transform group caches its world transformation, i.e., the product of the 
+ * transformations from the root of the scene graph down to this group, which 
+ * the {@link GraphSceneManager} reads when it traverses the scene. The cached 
+ * world transformations of this group and of all nodes below it are only 
+ * recomputed after {@link #setTransformation(Matrix4f)} was called, so the 
+ * transformation must not be changed in place without calling it. A node 
+ * can only be the child of one group.
+ */
 public class TransformGroup extends Group {
 	private Matrix4f transformation;
+	private Matrix4f world = new Matrix4f();
+	boolean worldDirty = true;
 	
 	/**
 	 * Creates a transform group and sets its transformation matrix to the identity.
@@ -57,11 +69,36 @@ public class TransformGroup extends Group {
 		
 		for(Node node : children){
 			this.children.addLast(node);
+			setParent(node, this);
+			invalidateWorldTransformations(node);
 		}
 	}
 	
+	/**
+	 * Sets the transformation of this group and marks the world transformations 
+	 * of this group and of all nodes below it, and the bounding spheres of the 
+	 * groups above it, as outdated. This also has to be 
+	 * called after the matrix returned by {@link #getTransformation()} was 
+	 * changed.
+	 */
 	public void setTransformation(Matrix4f transformation){
 		this.transformation = transformation;
+		invalidateWorldTransformations(this);
+		invalidateBounds(parent);
+	}
+	
+	/**
+	 * Returns the world transformation of this group, which is recomputed only 
+	 * if it is outdated.
+	 * @param parentWorld the world transformation of the parent.
+	 */
+	@Override
+	Matrix4f getWorldTransformation(Matrix4f parentWorld) {
+		if(worldDirty){
+			world.mul(parentWorld, transformation);
+			worldDirty = false;
+		}
+		return world;
 	}
 	
 	@Override
@@ -50,7 +50,7 @@ public class GLDeferredRenderContext implements RenderContext{
 	private Vector3f tempPos = new Vector3f(), tempLookAt = new Vector3f(),
 			orthoPos = new Vector3f(.5f,.5f,1f), orthoLookAT = new Vector3f(.5f,.5f,0f);
 	private Matrix4f tempCameraMatrix = new Matrix4f();
-	private Matrix4f tempProj = new Matrix4f();
+	private Matrix4f tempProj = new Matrix4f(), orthoProj = new Matrix4f();
 	private boolean changedCameraMode = false;
 	
 	/**
@@ -66,6 +66,7 @@ public class GLDeferredRenderContext implements RenderContext{
 	
 	private int activeShaderID;
 	protected SceneManagerInterface sceneManager;
+	private RenderList renderList = new RenderList();
 	
 	
 	protected void init(int width, int height){
@@ -126,7 +127,7 @@ public class GLDeferredRenderContext implements RenderContext{
 		this.changeCameraMode();
 		
 		// Manage the lights, that is, pass the lights to the deferred shading logic
-		this.secondPassDrawer.manageLights(gl, sceneManager.lightIterator());
+		this.secondPassDrawer.manageLights(gl, renderList.lightIterator());
 		// Prepare the shader for deferred shading
 		this.secondPassDrawer.manageShader(this);
 		
@@ -173,25 +174,23 @@ public class GLDeferredRenderContext implements RenderContext{
 		this.useShader(defaultGBufferShader);
 		
 		// Iterate over the scene and draw all objects
-		SceneManagerIterator iterator = sceneManager.iterator();
-		while (iterator.hasNext()) {
-			RenderItem r = iterator.next();
-			if (r.getShape() != null) {
-				
-				// Pass material properties to g-buffer shader
-				// Note we are not activating the material shader, 
-				// since we just want to draw into the g-buffer at 
-				// this point. If the material doesn't have its own
-				// texture, make sure to pass the default OpenGL 
-				// texture 0, which is black
-				Material m = r.getShape().getMaterial();
-				if(m != null && m.diffuseMap != null)
-					this.bindTexture(0, ((GLTexture)m.diffuseMap).getId(), "diffuseMap", (GLShader) this.defaultGBufferShader);			
-				else
-					this.bindTexture(0, 0, "diffuseMap", (GLShader) this.defaultGBufferShader);			
+		sceneManager.fillRenderList(renderList);
+		for (int i = 0; i < renderList.size(); i++) {
+			RenderItem r = renderList.get(i);
+			
+			// Pass material properties to g-buffer shader
+			// Note we are not activating the material shader, 
+			// since we just want to draw into the g-buffer at 
+			// this point. If the material doesn't have its own
+			// texture, make sure to pass the default OpenGL 
+			// texture 0, which is black
+			Material m = r.getShape().getMaterial();
+			if(m != null && m.diffuseMap != null)
+				this.bindTexture(0, ((GLTexture)m.diffuseMap).getId(), "diffuseMap", (GLShader) this.defaultGBufferShader);			
+			else
+				this.bindTexture(0, 0, "diffuseMap", (GLShader) this.defaultGBufferShader);			
 
-				draw(r);
-			}
+			draw(r);
 		}
 		
 		// Un-bind the g-buffer
@@ -214,7 +213,8 @@ public class GLDeferredRenderContext implements RenderContext{
 			// Make camera for second pass
 			this.sceneManager.getCamera().setCenterOfProjection(this.orthoPos);
 			this.sceneManager.getCamera().setLookAtPoint(this.orthoLookAT);
-			Matrix4fUtils.setOrtho(this.sceneManager.getFrustum().getProjectionMatrix(), -.5f, .5f, -.5f, .5f, 0, 2);
+			Matrix4fUtils.setOrtho(this.orthoProj, -.5f, .5f, -.5f, .5f, 0, 2);
+			this.sceneManager.getFrustum().setProjectionMatrix(this.orthoProj);
 		}
 	}
 	
@@ -228,7 +228,7 @@ public class GLDeferredRenderContext implements RenderContext{
 			this.sceneManager.getCamera().setCenterOfProjection(tempPos);
 			this.sceneManager.getCamera().setLookAtPoint(tempLookAt);
 //			this.sceneManager.getCamera().setCameraMatrix(this.tempCameraMatrix);
-			this.sceneManager.getFrustum().getProjectionMatrix().set(tempProj);
+			this.sceneManager.getFrustum().setProjectionMatrix(tempProj);
 		}
 	}
 	
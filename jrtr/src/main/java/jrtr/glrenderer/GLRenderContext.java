@@ -12,8 +12,9 @@ import jrtr.Light;
 import jrtr.Material;
 import jrtr.RenderContext;
 import jrtr.RenderItem;
+import jrtr.RenderItemSorter;
+import jrtr.RenderList;
 import jrtr.SceneManagerInterface;
-import jrtr.SceneManagerIterator;
 import jrtr.Shader;
 import jrtr.Texture;
 import jrtr.VertexData;
@@ -38,6 +39,29 @@ public class GLRenderContext implements RenderContext {
 	 */
 	private int activeShaderID;
 
+	/**
+	 * Draw the opaque shapes from front to back, so that the early depth 
+	 * test of the GPU rejects more hidden fragments. See 
+	 * {@link #setSortFrontToBack(boolean)}.
+	 */
+	private boolean sortFrontToBack;
+	private RenderItemSorter sorter = new RenderItemSorter();
+	private RenderList renderList = new RenderList();
+
+	/**
+	 * The lights of the frame, packed once per frame from the render list, 
+	 * see {@link #gatherLights()}. They are passed to every shader that is 
+	 * used in the frame once, since the uniform variables of a shader keep 
+	 * their values.
+	 */
+	private static final int MAX_LIGHTS = 8; // make sure to set this equals to MAX_LIGHTS in diffusePointLights.vert
+	private int nLights;
+	private float[] lightColors = new float[3*MAX_LIGHTS];
+	private float[] lightPositions = new float[3*MAX_LIGHTS];
+	private float[] lightDirections = new float[4*MAX_LIGHTS];
+	private int[] lightPrograms = new int[4];
+	private int nLightPrograms;
+
 	/**
 	 * This constructor is called by {@link GLRenderPanel}.
 	 * 
@@ -72,6 +96,18 @@ public class GLRenderContext implements RenderContext {
 		this.sceneManager = sceneManager;
 	}
 
+	/**
+	 * Sort the opaque shapes of the scene from front to back before drawing 
+	 * them, see {@link RenderItemSorter}.
+	 */
+	public void setSortFrontToBack(boolean sortFrontToBack) {
+		this.sortFrontToBack = sortFrontToBack;
+	}
+
+	public boolean isSortFrontToBack() {
+		return sortFrontToBack;
+	}
+
 	/**
 	 * This method is called by the GLRenderPanel to redraw the 3D scene. The
 	 * method traverses the scene using the scene manager and passes each object
@@ -86,11 +122,16 @@ public class GLRenderContext implements RenderContext {
 		beginFrame();
 
 		// Traverse scene manager and draw everything
-		SceneManagerIterator iterator = sceneManager.iterator();
-		while (iterator.hasNext()) {
-			RenderItem r = iterator.next();
-			if (r.getShape() != null) {
-				draw(r);
+		sceneManager.fillRenderList(renderList);
+		gatherLights();
+		if (sortFrontToBack) {
+			int n = sorter.sort(renderList);
+			for (int i = 0; i < n; i++) {
+				draw(sorter.get(i));
+			}
+		} else {
+			for (int i = 0; i < renderList.size(); i++) {
+				draw(renderList.get(i));
 			}
 		}
 
@@ -352,80 +393,90 @@ public class GLRenderContext implements RenderContext {
 			else
 				System.out.print("Could not get location of uniform variable specular_reflection\n");
 			
-			// Pass a default light source to shader
-			String lightString = "light_direction[0]";			
-			id = gl.glGetUniformLocation(activeShaderID, lightString);
-			if(id!=-1)
-				gl.glUniform4f(id, 0, 0, 1, 0.f);		// Set light direction
-			else
-				System.out.print("Could not get location of uniform variable " + lightString + "\n");
-			int nLights = 1;
+			// Pass the light sources of the frame to the shader, if it does 
+			// not have them yet
+			passLights();
+		}
+	}
+
+	/**
+	 * Packs the lights of the render list into the arrays that are passed to 
+	 * the shaders.
+	 */
+	private void gatherLights() {
+		nLights = 0;
+		nLightPrograms = 0;
+		for (int i = 0; i < renderList.getLightCount() && nLights < MAX_LIGHTS; i++) {
+			Light l = renderList.getLight(i);
 			
-			// Iterate over all light sources in scene manager (overwriting the default light source)
-			Iterator<Light> iter = sceneManager.lightIterator();			
+			lightDirections[4*nLights] = l.direction.x;
+			lightDirections[4*nLights+1] = l.direction.y;
+			lightDirections[4*nLights+2] = l.direction.z;
+			lightDirections[4*nLights+3] = 0f;
 			
-			Light l;
-			if(iter != null) {
-				nLights = 0;
-				int maxLights = 8; // make sure to set this equals to MAX_LIGHTS in diffusePointLights.vert
-				float[] lightColors = new float[3*maxLights];
-				float[] lightPositions = new float[3*maxLights];
-				float[] lightDirections = new float[4*maxLights];
-				
-				while(iter.hasNext() && nLights<maxLights)
-				{
-					l = iter.next();
-					if(l==null)
-						continue;
-					
-					lightDirections[4*nLights] = l.direction.x;
-					lightDirections[4*nLights+1] = l.direction.y;
-					lightDirections[4*nLights+2] = l.direction.z;
-					lightDirections[4*nLights+3] = 0f;
-					
-					lightColors[3*nLights] = l.diffuse.x;
-					lightColors[3*nLights+1] = l.diffuse.y;
-					lightColors[3*nLights+2] = l.diffuse.z;
-					
-					lightPositions[3*nLights] = l.position.x;
-					lightPositions[3*nLights+1] = l.position.y;
-					lightPositions[3*nLights+2] = l.position.z;
-					
-					nLights++;
-				}
-				
-				// Pass light direction to shader, we assume the shader stores it in an array "light_direction[]"
-				lightString = "light_direction";
-				id = gl.glGetUniformLocation(activeShaderID, lightString);
-				if(id!=-1)
-					gl.glUniform4fv(id, nLights, lightDirections, 0);		// Set light direction
-				else
-					System.out.print("Could not get location of uniform variable " + lightString + "\n");
-				
-				// Pass light colors to shader, we assume the shader stores it in an array "light_color[]"
-				lightString = "light_color";
-				id = gl.glGetUniformLocation(activeShaderID, lightString);
-				if(id!=-1)
-					gl.glUniform3fv(id, nLights, lightColors, 0);		// Set light colors
-				else
-					System.out.print("Could not get location of uniform variable " + lightString + "\n");
-				
-				// Pass light positions to shader, we assume the shader stores it in an array "light_position[]"
-				lightString = "light_position";			
-				id = gl.glGetUniformLocation(activeShaderID, lightString);
-				if(id!=-1)
-					gl.glUniform3fv(id, nLights, lightPositions, 0);		// Set light positions
-				else
-					System.out.print("Could not get location of uniform variable " + lightString + "\n");
-				
-				// Pass number of lights to shader, we assume this is in a variable "nLights" in the shader
-				id = gl.glGetUniformLocation(activeShaderID, "nLights");
-				if(id!=-1)
-					gl.glUniform1i(id, nLights);		// Set number of lightrs
-				else
-					System.out.print("Could not get location of uniform variable nLights\n");
-			}
+			lightColors[3*nLights] = l.diffuse.x;
+			lightColors[3*nLights+1] = l.diffuse.y;
+			lightColors[3*nLights+2] = l.diffuse.z;
+			
+			lightPositions[3*nLights] = l.position.x;
+			lightPositions[3*nLights+1] = l.position.y;
+			lightPositions[3*nLights+2] = l.position.z;
+			
+			nLights++;
+		}
+	}
+
+	/**
+	 * Passes the lights of the frame to the active shader, unless they were 
+	 * already passed to it in this frame.
+	 */
+	private void passLights() {
+		for (int i = 0; i < nLightPrograms; i++) {
+			if (lightPrograms[i] == activeShaderID)
+				return;
 		}
+		if (nLightPrograms == lightPrograms.length)
+			lightPrograms = Arrays.copyOf(lightPrograms, 2*nLightPrograms);
+		lightPrograms[nLightPrograms++] = activeShaderID;
+		
+		// Pass a default light source to shader
+		String lightString = "light_direction[0]";			
+		int id = gl.glGetUniformLocation(activeShaderID, lightString);
+		if(id!=-1)
+			gl.glUniform4f(id, 0, 0, 1, 0.f);		// Set light direction
+		else
+			System.out.print("Could not get location of uniform variable " + lightString + "\n");
+		
+		// Pass light direction to shader, we assume the shader stores it in an array "light_direction[]"
+		lightString = "light_direction";
+		id = gl.glGetUniformLocation(activeShaderID, lightString);
+		if(id!=-1)
+			gl.glUniform4fv(id, nLights, lightDirections, 0);		// Set light direction
+		else
+			System.out.print("Could not get location of uniform variable " + lightString + "\n");
+		
+		// Pass light colors to shader, we assume the shader stores it in an array "light_color[]"
+		lightString = "light_color";
+		id = gl.glGetUniformLocation(activeShaderID, lightString);
+		if(id!=-1)
+			gl.glUniform3fv(id, nLights, lightColors, 0);		// Set light colors
+		else
+			System.out.print("Could not get location of uniform variable " + lightString + "\n");
+		
+		// Pass light positions to shader, we assume the shader stores it in an array "light_position[]"
+		lightString = "light_position";			
+		id = gl.glGetUniformLocation(activeShaderID, lightString);
+		if(id!=-1)
+			gl.glUniform3fv(id, nLights, lightPositions, 0);		// Set light positions
+		else
+			System.out.print("Could not get location of uniform variable " + lightString + "\n");
+		
+		// Pass number of lights to shader, we assume this is in a variable "nLights" in the shader
+		id = gl.glGetUniformLocation(activeShaderID, "nLights");
+		if(id!=-1)
+			gl.glUniform1i(id, nLights);		// Set number of lightrs
+		else
+			System.out.print("Could not get location of uniform variable nLights\n");
 	}
 
 	/**
@@ -0,0 +1,170 @@
+package jrtr.swrenderer;
+
+/**
+ * Clips triangles in homogeneous clip space, before the division by w.
+ * Triangles are always clipped against the near plane z = -w. Clipping a
+ * triangle against one plane results in a polygon with 0, 3 or 4 vertices,
+ * i.e., 0-2 triangles.
+ * <p>
+ * Triangles are not clipped against the sides of the viewing frustum. The
+ * rasterizer restricts them to the screen, so it only needs their screen
+ * coordinates to stay in a reasonable range. Triangles that reach beyond a
+ * guard band of {@link #GUARD_BAND} times the viewport size are therefore
+ * also clipped against the guard band planes. This is rare, since it needs
+ * a large triangle close to the camera.
+ * <p>
+ * A vertex is stored as an array of {@link #VERTEX_SIZE} floats: the clip
+ * space position (x, y, z, w) followed by the vertex attributes. All
+ * attributes are interpolated linearly in clip space, which is perspective
+ * correct.
+ */
+class SWClipper {
+	
+	static final int POSITION = 0, COLOR = 4, NORMAL = 7, TEXCOORD = 10, VIEW_POSITION = 12;
+	static final int VERTEX_SIZE = 15;
+	
+	/**
+	 * The vertex attributes after the position are the varyings, which the 
+	 * rasterizer interpolates across the triangle.
+	 */
+	static final int FIRST_VARYING = COLOR;
+	static final int VARYINGS = VERTEX_SIZE - FIRST_VARYING;
+	
+	/**
+	 * The bits of an outcode, one for each plane a vertex is outside of. 
+	 * Triangles are clipped against the planes in {@link #CLIP_PLANES}, the 
+	 * others are the sides of the viewing frustum.
+	 */
+	static final int NEAR = 1, GUARD_LEFT = 2, GUARD_RIGHT = 4, GUARD_BOTTOM = 8, GUARD_TOP = 16;
+	static final int LEFT = 32, RIGHT = 64, BOTTOM = 128, TOP = 256, FAR = 512;
+	static final int CLIP_PLANES = NEAR | GUARD_LEFT | GUARD_RIGHT | GUARD_BOTTOM | GUARD_TOP;
+	static final int FRUSTUM_PLANES = NEAR | FAR | LEFT | RIGHT | BOTTOM | TOP;
+	
+	/**
+	 * The extent of the guard band in normalized device coordinates, i.e.,
+	 * vertices need to satisfy -GUARD_BAND*w <= x, y <= GUARD_BAND*w.
+	 */
+	static final float GUARD_BAND = 4;
+	
+	/**
+	 * Every clipping plane adds at most one vertex to the polygon.
+	 */
+	private static final int MAX_VERTICES = 3+5;
+	
+	/**
+	 * The three vertices of the triangle to clip.
+	 */
+	final float[][] input = new float[3][VERTEX_SIZE];
+	
+	private float[][] polygon = new float[MAX_VERTICES][VERTEX_SIZE];
+	private float[][] clipped = new float[MAX_VERTICES][VERTEX_SIZE];
+	private float[] distances = new float[MAX_VERTICES];
+	
+	/**
+	 * The result of the last call to {@link #clip()}.
+	 */
+	private float[][] output;
+	
+	/**
+	 * Computes the outcode of a vertex in clip space.
+	 */
+	static int getOutcode(float x, float y, float z, float w)
+	{
+		float g = GUARD_BAND*w;
+		int code = 0;
+		if(z < -w) code |= NEAR;
+		if(z > w) code |= FAR;
+		if(x < -w) code |= x < -g ? LEFT | GUARD_LEFT : LEFT;
+		if(x > w) code |= x > g ? RIGHT | GUARD_RIGHT : RIGHT;
+		if(y < -w) code |= y < -g ? BOTTOM | GUARD_BOTTOM : BOTTOM;
+		if(y > w) code |= y > g ? TOP | GUARD_TOP : TOP;
+		return code;
+	}
+	
+	/**
+	 * Clips the triangle in {@link #input}. The resulting convex polygon
+	 * can be accessed with {@link #getVertex(int)} and is triangulated as a
+	 * fan around its first vertex.
+	 *
+	 * @param outcodes the union of the outcodes of the three vertices
+	 * @return the number of vertices of the clipped polygon, 0 if the
+	 * triangle is invisible.
+	 */
+	int clip(int outcodes)
+	{
+		// completely inside the near plane and the guard band
+		if((outcodes & CLIP_PLANES) == 0)
+		{
+			output = input;
+			return 3;
+		}
+		
+		float[] v0 = input[0], v1 = input[1], v2 = input[2];
+		
+		// all vertices behind the near plane
+		if(v0[2] < -v0[3] && v1[2] < -v1[3] && v2[2] < -v2[3])
+			return 0;
+		
+		for(int i=0; i<3; i++)
+			System.arraycopy(input[i], 0, polygon[i], 0, VERTEX_SIZE);
+		int n = 3;
+		// near plane: z + w >= 0
+		n = clipPlane(n, 0, 0, 1, 0);
+		// guard band planes: G*w - x >= 0, G*w + x >= 0, ...
+		n = clipPlane(n, -1, 0, 0, GUARD_BAND);
+		n = clipPlane(n, 1, 0, 0, GUARD_BAND);
+		n = clipPlane(n, 0, -1, 0, GUARD_BAND);
+		n = clipPlane(n, 0, 1, 0, GUARD_BAND);
+		output = polygon;
+		return n < 3 ? 0 : n;
+	}
+	
+	float[] getVertex(int i)
+	{
+		return output[i];
+	}
+	
+	/**
+	 * Clips the polygon against the plane a*x + b*y + c*z + d*w >= 0
+	 * (Sutherland-Hodgman).
+	 *
+	 * @return the number of vertices of the clipped polygon.
+	 */
+	private int clipPlane(int n, float a, float b, float c, float d)
+	{
+		if(n == 0)
+			return 0;
+		
+		boolean allInside = true;
+		for(int i=0; i<n; i++)
+		{
+			float[] v = polygon[i];
+			distances[i] = a*v[0] + b*v[1] + c*v[2] + d*v[3];
+			allInside &= distances[i] >= 0;
+		}
+		if(allInside)
+			return n;
+		
+		int m = 0;
+		for(int i=0; i<n; i++)
+		{
+			int j = (i+1)%n;
+			float di = distances[i], dj = distances[j];
+			if(di >= 0)
+				System.arraycopy(polygon[i], 0, clipped[m++], 0, VERTEX_SIZE);
+			if((di >= 0) != (dj >= 0))
+			{
+				// the edge crosses the plane
+				float t = di/(di-dj);
+				float[] vi = polygon[i], vj = polygon[j], v = clipped[m++];
+				for(int k=0; k<VERTEX_SIZE; k++)
+					v[k] = vi[k] + t*(vj[k]-vi[k]);
+			}
+		}
+		
+		float[][] tmp = polygon;
+		polygon = clipped;
+		clipped = tmp;
+		return m;
+	}
+}
@@ -0,0 +1,211 @@
+package jrtr.swrenderer;
+
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector4f;
+
+import jrtr.RenderItem;
+import jrtr.Shape;
+
+/**
+ * Finds the screen tiles of the {@link SWRenderContext} that changed since
+ * the last frame, for the incremental rendering. It stores the shape, the
+ * transformation and the screen bounds of every render item of the last
+ * frame, in drawing order. The screen bounds are the tiles that the
+ * projection of the bounding sphere of the shape overlaps. If the shape or
+ * the transformation of the item at an index changed, the tiles of its
+ * previous and of its new bounds are dirty. If the camera or the
+ * projection changed, all tiles are dirty.
+ */
+class SWDamageTracker {
+	
+	/**
+	 * Pixels added around the projected bounding spheres. This covers the
+	 * rounding of the bounding boxes of the triangles and the samples of
+	 * the multisample modes outside of the pixels.
+	 */
+	private static final int MARGIN = 2;
+	
+	/**
+	 * The items of the current frame.
+	 */
+	private RenderItem[] items = new RenderItem[16];
+	private int nItems;
+	
+	/**
+	 * The shapes, transformations and bounds of the items of the last frame.
+	 * The bounds of item i are the tiles (minTX, minTY, maxTX, maxTY) at
+	 * index 4*i, they are empty if minTX > maxTX.
+	 */
+	private Shape[] shapes = new Shape[0];
+	private Matrix4f[] transformations = new Matrix4f[0];
+	private int[] bounds = new int[0];
+	private int nPrevious;
+	
+	private Matrix4f camera = new Matrix4f(), projection = new Matrix4f();
+	private Matrix4f objectToClip = new Matrix4f();
+	
+	/**
+	 * Start collecting the items of a new frame.
+	 */
+	void clearItems()
+	{
+		nItems = 0;
+	}
+	
+	void addItem(RenderItem item)
+	{
+		if(nItems == items.length)
+			items = Arrays.copyOf(items, 2*items.length);
+		items[nItems++] = item;
+	}
+	
+	int getNumberOfItems()
+	{
+		return nItems;
+	}
+	
+	RenderItem getItem(int i)
+	{
+		return items[i];
+	}
+	
+	/**
+	 * Compares the items of the current frame with the last frame and sets
+	 * the dirty flags of the tiles.
+	 *
+	 * @param invalid true if all tiles are dirty, e.g., because the viewport
+	 * changed
+	 * @return the number of dirty tiles
+	 */
+	int update(SWTile[] tiles, int tilesX, int tileSize, int width, int height, Matrix4f camera,
+			Matrix4f projection, boolean invalid)
+	{
+		if(!this.camera.equals(camera) || !this.projection.equals(projection))
+		{
+			this.camera.set(camera);
+			this.projection.set(projection);
+			invalid = true;
+		}
+		for(SWTile tile : tiles)
+			tile.dirty = invalid;
+		
+		ensureCapacity(nItems);
+		for(int i=0; i<nItems; i++)
+		{
+			Shape shape = items[i].getShape();
+			Matrix4f t = items[i].getT();
+			boolean changed = i >= nPrevious || shapes[i] != shape || !transformations[i].equals(t);
+			if(changed && i < nPrevious)
+				markDirty(tiles, tilesX, i);
+			
+			shapes[i] = shape;
+			transformations[i].set(t);
+			setBounds(i, shape, t, tileSize, width, height);
+			if(changed)
+				markDirty(tiles, tilesX, i);
+		}
+		for(int i=nItems; i<nPrevious; i++)
+		{
+			markDirty(tiles, tilesX, i);
+			shapes[i] = null;
+		}
+		nPrevious = nItems;
+		
+		int dirtyTiles = 0;
+		for(SWTile tile : tiles)
+		{
+			if(tile.dirty)
+				dirtyTiles++;
+		}
+		return dirtyTiles;
+	}
+	
+	/**
+	 * @return true if the bounds of item i overlap a dirty tile, i.e., if
+	 * the item has to be drawn.
+	 */
+	boolean overlapsDirtyTile(SWTile[] tiles, int tilesX, int i)
+	{
+		for(int ty=bounds[4*i+1]; ty<=bounds[4*i+3]; ty++)
+		{
+			for(int tx=bounds[4*i]; tx<=bounds[4*i+2]; tx++)
+			{
+				if(tiles[ty*tilesX+tx].dirty)
+					return true;
+			}
+		}
+		return false;
+	}
+	
+	private void markDirty(SWTile[] tiles, int tilesX, int i)
+	{
+		for(int ty=bounds[4*i+1]; ty<=bounds[4*i+3]; ty++)
+			for(int tx=bounds[4*i]; tx<=bounds[4*i+2]; tx++)
+				tiles[ty*tilesX+tx].dirty = true;
+	}
+	
+	/**
+	 * Projects the eight corners of the cube around the bounding sphere of
+	 * the shape to the screen. If a corner is not in front of the camera,
+	 * the bounds are the whole screen.
+	 */
+	private void setBounds(int i, Shape shape, Matrix4f t, int tileSize, int width, int height)
+	{
+		Matrix4f m = objectToClip;
+		m.set(t);
+		m.mul(camera, m);
+		m.mul(projection, m);
+		
+		Vector4f center = shape.getBoundingSphereCenter();
+		float r = shape.getBoundingSphereRadius();
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for(int k=0; k<8; k++)
+		{
+			float px = center.x + ((k&1) != 0 ? r : -r);
+			float py = center.y + ((k&2) != 0 ? r : -r);
+			float pz = center.z + ((k&4) != 0 ? r : -r);
+			float w = m.m30*px + m.m31*py + m.m32*pz + m.m33;
+			if(!(w > 1e-6f))
+			{
+				minX = minY = -Float.MAX_VALUE;
+				maxX = maxY = Float.MAX_VALUE;
+				break;
+			}
+			float x = width/2f*((m.m00*px + m.m01*py + m.m02*pz + m.m03)/w + 1);
+			float y = height/2f*(1 - (m.m10*px + m.m11*py + m.m12*pz + m.m13)/w);
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+		
+		if(maxX + MARGIN < 0 || maxY + MARGIN < 0 || minX - MARGIN > width-1 || minY - MARGIN > height-1)
+		{
+			bounds[4*i] = 0;
+			bounds[4*i+2] = -1;
+			bounds[4*i+1] = 0;
+			bounds[4*i+3] = -1;
+			return;
+		}
+		bounds[4*i] = (int)Math.max(minX - MARGIN, 0)/tileSize;
+		bounds[4*i+1] = (int)Math.max(minY - MARGIN, 0)/tileSize;
+		bounds[4*i+2] = (int)Math.min(maxX + MARGIN, width-1)/tileSize;
+		bounds[4*i+3] = (int)Math.min(maxY + MARGIN, height-1)/tileSize;
+	}
+	
+	private void ensureCapacity(int n)
+	{
+		if(n <= shapes.length)
+			return;
+		int capacity = Math.max(n, 2*shapes.length);
+		shapes = Arrays.copyOf(shapes, capacity);
+		bounds = Arrays.copyOf(bounds, 4*capacity);
+		int old = transformations.length;
+		transformations = Arrays.copyOf(transformations, capacity);
+		for(int i=old; i<capacity; i++)
+			transformations[i] = new Matrix4f();
+	}
+}
@@ -0,0 +1,87 @@
+package jrtr.swrenderer;
+
+import jrtr.Material;
+
+/**
+ * The input of the fragment stage of a {@link SWShader}: a pixel, or a 
+ * sample with multisampling, of a triangle. The varyings are interpolated 
+ * perspective correctly when they are read. Every screen tile of the 
+ * render context reuses one object for all of its fragments.
+ */
+public class SWFragment {
+	
+	/**
+	 * The position of the fragment in pixel coordinates.
+	 */
+	public float x, y;
+	
+	/**
+	 * Temporary storage for shaders, e.g., for the result of 
+	 * {@link SWLights#shade}.
+	 */
+	public final float[] lighting = new float[6];
+	
+	private float oneOverW, w;
+	private SWTriangle triangle;
+	private final SWLights lights;
+	
+	SWFragment(SWLights lights)
+	{
+		this.lights = lights;
+	}
+	
+	void set(SWTriangle triangle, float x, float y, float oneOverW, float w)
+	{
+		this.triangle = triangle;
+		this.x = x;
+		this.y = y;
+		this.oneOverW = oneOverW;
+		this.w = w;
+	}
+	
+	/**
+	 * @return varying i at the fragment. Only the varyings of the varying 
+	 * mask of the shader are available, see 
+	 * {@link SWShader#setVaryingMask(int)}.
+	 */
+	public float getVarying(int i)
+	{
+		return SWRenderContext.getVarying(triangle, i, x, y, w);
+	}
+	
+	public Material getMaterial()
+	{
+		return triangle.material;
+	}
+	
+	public SWLights getLights()
+	{
+		return lights;
+	}
+	
+	public boolean hasTexture()
+	{
+		return triangle.texture != null;
+	}
+	
+	/**
+	 * @return the color of the texture of the material at the texture 
+	 * coordinates of the fragment, filtered trilinearly.
+	 */
+	public int sampleTexture()
+	{
+		return SWRenderContext.getTextureColor(x, y, oneOverW, w, triangle);
+	}
+	
+	/**
+	 * @return the color with the components clamped to [0, 1] as a packed 
+	 * RGB int.
+	 */
+	public static int toRGB(float red, float green, float blue)
+	{
+		int r = (int)(Math.min(Math.max(red, 0), 1)*255);
+		int g = (int)(Math.min(Math.max(green, 0), 1)*255);
+		int b = (int)(Math.min(Math.max(blue, 0), 1)*255);
+		return (r<<16) + (g<<8) + b;
+	}
+}
@@ -0,0 +1,16 @@
+package jrtr.swrenderer;
+
+/**
+ * The fragment stage of a {@link SWShader}. It is called for every pixel 
+ * that a triangle shades and computes the color of the pixel from the 
+ * interpolated varyings.
+ */
+@FunctionalInterface
+public interface SWFragmentStage {
+	
+	/**
+	 * @return the color of the fragment as a packed RGB int, see 
+	 * {@link SWFragment#toRGB(float, float, float)}.
+	 */
+	public int shade(SWFragment fragment);
+}
@@ -0,0 +1,246 @@
+package jrtr.swrenderer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * The per-frame buffers of the {@link SWRenderContext}. The buffers are 
+ * allocated once for a viewport size and reused for every frame, so 
+ * rendering a frame does not allocate memory once the viewport size is 
+ * stable. Pixels are stored row by row, i.e., the pixel (x, y) is at index 
+ * y*width + x. The sample buffers of the multisample mode store the 
+ * samples of a pixel next to each other, i.e., sample s of pixel (x, y) is 
+ * at index (y*width + x)*samples + s.
+ */
+class SWFrameState {
+	
+	static final int BLOCK_SIZE = 8;
+	
+	final int width, height;
+	
+	/**
+	 * The number of samples per pixel, 1 without multisampling.
+	 */
+	final int samples;
+	
+	/**
+	 * The color buffer, one packed RGB int per pixel. This is the data 
+	 * buffer of the displayed image, so the rasterizer writes directly 
+	 * into the image.
+	 */
+	int[] color;
+	
+	/**
+	 * The depth buffer, one depth per sample. Stores the depth z/w of the 
+	 * viewport transform in [0, 1], smaller values are closer to the camera.
+	 */
+	final float[] depth;
+	
+	/**
+	 * The colors of the samples in the multisample mode, which are resolved 
+	 * into {@link #color} at the end of the frame. Null without 
+	 * multisampling.
+	 */
+	final int[] sampleColor;
+	
+	/**
+	 * The visibility buffer of the visibility buffer mode of the 
+	 * {@link SWRenderContext}. Stores the index of the triangle of the frame 
+	 * that is visible at a pixel. It is only valid where the depth buffer 
+	 * was written in the current frame, so it is not cleared.
+	 */
+	final int[] visibility;
+	
+	/**
+	 * The coarse depth buffer. Stores the maximum depth of each block of 
+	 * {@link #BLOCK_SIZE}x{@link #BLOCK_SIZE} pixels, blocks are stored row 
+	 * by row. A fragment in a block can only pass the depth test if it is 
+	 * closer than the maximum depth of the block. The values are upper 
+	 * bounds of the depths of all samples in the block.
+	 */
+	final float[] blockMaxDepth;
+	final int blocksX, blocksY;
+	
+	/**
+	 * The pixels of each block that were covered since the maximum depth of 
+	 * the block was last lowered, one bit per pixel with pixel (x, y) of the 
+	 * block at bit y*BLOCK_SIZE + x, and the maximum depth of the fragments 
+	 * that covered them. With multisampling, a pixel only counts as covered 
+	 * if a triangle covers all of its samples. Once all pixels of a block are covered, the maximum 
+	 * depth of the block is lowered to the maximum of these fragments.
+	 */
+	final long[] blockCoverage;
+	final float[] blockCoverageMaxDepth;
+	
+	/**
+	 * The coverage mask of a block with all pixels covered. It has fewer 
+	 * bits for the blocks at the right and bottom border of the screen.
+	 */
+	final long[] blockFullCoverage;
+	
+	/**
+	 * The image that is displayed. It can be replaced between frames, see 
+	 * {@link #setImage(BufferedImage)}.
+	 */
+	BufferedImage image;
+	
+	SWFrameState(int width, int height, int samples)
+	{
+		this.width = width;
+		this.height = height;
+		this.samples = samples;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		color = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		depth = new float[width*height*samples];
+		sampleColor = samples > 1 ? new int[width*height*samples] : null;
+		visibility = new int[width*height];
+		blocksX = (width+BLOCK_SIZE-1)/BLOCK_SIZE;
+		blocksY = (height+BLOCK_SIZE-1)/BLOCK_SIZE;
+		blockMaxDepth = new float[blocksX*blocksY];
+		blockCoverage = new long[blocksX*blocksY];
+		blockCoverageMaxDepth = new float[blocksX*blocksY];
+		blockFullCoverage = new long[blocksX*blocksY];
+		for(int y=0; y<height; y++)
+			for(int x=0; x<width; x++)
+				blockFullCoverage[(y/BLOCK_SIZE)*blocksX + x/BLOCK_SIZE] |= 1L << ((y%BLOCK_SIZE)*BLOCK_SIZE + x%BLOCK_SIZE);
+	}
+	
+	/**
+	 * Prepares the blocks in a rectangle of pixels for the second pass of 
+	 * the depth prepass mode of the {@link SWRenderContext}. The rectangle 
+	 * has to be aligned to the blocks. The maximum depth of each block is 
+	 * set to the exact maximum of the depth buffer in the block. From now 
+	 * on, the coverage mask of a block holds the pixels that need no more 
+	 * shading, and starts with the pixels that no triangle covered.
+	 */
+	void beginEqualDepthPass(int minX, int minY, int maxX, int maxY)
+	{
+		for(int by=minY/BLOCK_SIZE; by<=maxY/BLOCK_SIZE; by++)
+		{
+			for(int bx=minX/BLOCK_SIZE; bx<=maxX/BLOCK_SIZE; bx++)
+			{
+				long empty = 0;
+				float maxDepth = 0;
+				for(int y=by*BLOCK_SIZE; y<=Math.min(by*BLOCK_SIZE+BLOCK_SIZE-1, maxY); y++)
+				{
+					for(int x=bx*BLOCK_SIZE; x<=Math.min(bx*BLOCK_SIZE+BLOCK_SIZE-1, maxX); x++)
+					{
+						// the depth buffer is cleared to 1
+						float z = depth[y*width + x];
+						if(z < 1)
+							maxDepth = Math.max(maxDepth, z);
+						else
+							empty |= 1L << ((y%BLOCK_SIZE)*BLOCK_SIZE + x%BLOCK_SIZE);
+					}
+				}
+				int block = by*blocksX + bx;
+				blockMaxDepth[block] = maxDepth;
+				blockCoverage[block] = empty;
+			}
+		}
+	}
+	
+	/**
+	 * Record that a triangle covered some pixels of a block.
+	 * 
+	 * @param coverage the covered pixels of the block
+	 * @param maxDepth the maximum depth of the triangle at these pixels
+	 */
+	void addBlockCoverage(int block, long coverage, float maxDepth)
+	{
+		blockCoverage[block] |= coverage;
+		blockCoverageMaxDepth[block] = Math.max(blockCoverageMaxDepth[block], maxDepth);
+		if(blockCoverage[block] == blockFullCoverage[block])
+		{
+			// every pixel is at most as deep as the last fragment covering it
+			blockMaxDepth[block] = Math.min(blockMaxDepth[block], blockCoverageMaxDepth[block]);
+			blockCoverage[block] = 0;
+			blockCoverageMaxDepth[block] = 0;
+		}
+	}
+	
+	/**
+	 * Averages the colors of the samples of the pixels in a rectangle into 
+	 * the color buffer. The red and blue channels are summed up in one int, 
+	 * and the green channel in another, since the sum of at most 256 samples 
+	 * of a channel fits into the 8 unused bits above it.
+	 */
+	void resolve(int minX, int minY, int maxX, int maxY)
+	{
+		int shift = Integer.numberOfTrailingZeros(samples);
+		for(int y=minY; y<=maxY; y++)
+		{
+			int index = y*width + minX;
+			for(int x=minX; x<=maxX; x++, index++)
+			{
+				int redBlue = 0, green = 0;
+				for(int s=index*samples; s<(index+1)*samples; s++)
+				{
+					int c = sampleColor[s];
+					redBlue += c & 0xFF00FF;
+					green += c & 0xFF00;
+				}
+				color[index] = ((redBlue >>> shift) & 0xFF00FF) | ((green >>> shift) & 0xFF00);
+			}
+		}
+	}
+	
+	/**
+	 * Render into another image of type TYPE_INT_RGB with the size of the 
+	 * frame, which becomes the color buffer.
+	 */
+	void setImage(BufferedImage image)
+	{
+		if(image.getWidth() != width || image.getHeight() != height || image.getType() != BufferedImage.TYPE_INT_RGB)
+			throw new IllegalArgumentException("The image does not match the frame buffer.");
+		this.image = image;
+		color = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+	}
+	
+	/**
+	 * Clear the color buffer to black and the depth buffer to the far plane.
+	 */
+	void clear()
+	{
+		Arrays.fill(color, 0);
+		if(sampleColor != null)
+			Arrays.fill(sampleColor, 0);
+		Arrays.fill(depth, 1);
+		Arrays.fill(blockMaxDepth, 1);
+		Arrays.fill(blockCoverage, 0);
+		Arrays.fill(blockCoverageMaxDepth, 0);
+	}
+	
+	/**
+	 * Clear the buffers in a rectangle of pixels as {@link #clear()} does. 
+	 * The rectangle has to be aligned to the blocks.
+	 */
+	void clear(int minX, int minY, int maxX, int maxY)
+	{
+		for(int y=minY; y<=maxY; y++)
+		{
+			int from = y*width + minX, to = y*width + maxX + 1;
+			Arrays.fill(color, from, to, 0);
+			if(sampleColor != null)
+				Arrays.fill(sampleColor, from*samples, to*samples, 0);
+			Arrays.fill(depth, from*samples, to*samples, 1);
+		}
+		for(int by=minY/BLOCK_SIZE; by<=maxY/BLOCK_SIZE; by++)
+		{
+			int from = by*blocksX + minX/BLOCK_SIZE, to = by*blocksX + maxX/BLOCK_SIZE + 1;
+			Arrays.fill(blockMaxDepth, from, to, 1);
+			Arrays.fill(blockCoverage, from, to, 0);
+			Arrays.fill(blockCoverageMaxDepth, from, to, 0);
+		}
+	}
+	
+	/**
+	 * Copy a rectangle of pixels from another color buffer of the same size.
+	 */
+	void copyColor(int[] source, int minX, int minY, int maxX, int maxY)
+	{
+		for(int y=minY; y<=maxY; y++)
+			System.arraycopy(source, y*width + minX, color, y*width + minX, maxX - minX + 1);
+	}
+}
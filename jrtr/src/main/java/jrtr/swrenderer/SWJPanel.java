@@ -6,28 +6,45 @@ import java.awt.Graphics2D;
 import java.awt.event.HierarchyBoundsListener;
 import java.awt.event.HierarchyListener;
 import java.awt.event.HierarchyEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+
 import javax.swing.JPanel;
 
-/** 
+/**
  * Shows the bitmap rendered by the the software renderer. This class also
  * redirects requests to redraw the image (via <code>paintComponent</code>)
  * to the software renderer {@link SWRenderContext}.
+ * <p>
+ * By default, <code>paintComponent</code> renders the frame on the Swing
+ * event dispatch thread, which is blocked until the frame is done. In the
+ * asynchronous mode (see {@link #setAsynchronous(boolean)}), a render
+ * thread renders the frames into back buffers, and
+ * <code>paintComponent</code> only draws the last completed frame. With
+ * two buffers, the render thread waits until its last frame was presented
+ * before it passes on the next one, so it never renders more than one
+ * frame ahead of the screen, and stops while the panel is not painted.
+ * With three buffers, it never waits, and a completed frame that was not
+ * presented yet is replaced by the next one.
+ * <p>
+ * In the asynchronous mode, the render thread reads the scene while the
+ * application changes it on other threads, e.g., the event dispatch
+ * thread. The application must therefore hold the scene lock of the
+ * renderer (see {@link SWRenderContext#getSceneLock()}) while it changes
+ * the scene graph, the transformations, the lights, the camera or the
+ * frustum. The render thread holds the lock only while it traverses the
+ * scene and copies what it needs, so it does not block the application
+ * while it rasterizes the frame. Vertex data, materials and textures must
+ * not be changed while the asynchronous mode is on.
  */
 public class SWJPanel extends JPanel {
-
+	
 	static final long serialVersionUID = 0;
 	/**
 	 * This class notifies the renderer when it needs to resize its
 	 * rendered image.
 	 */
 	private class SWPanelHierarchyBoundsListener implements HierarchyBoundsListener {
-
-		private SWRenderContext renderContext;
-		
-		public SWPanelHierarchyBoundsListener(SWRenderContext renderContext)
-		{
-			this.renderContext = renderContext;
-		}
 		
 		public void ancestorMoved(HierarchyEvent e)
 		{
@@ -37,50 +54,326 @@ public class SWJPanel extends JPanel {
 		{
 			if(e.getChanged() instanceof JPanel) {
 				Dimension d = e.getChanged().getSize();
-				renderContext.setViewportSize(d.width, d.height);
+				setViewportSize(d.width, d.height);
 			}
 		}
 	}
-
+	
 	private class SWPanelHierarchyListener implements HierarchyListener {
-
-		private SWRenderContext renderContext;
-		
-		public SWPanelHierarchyListener(SWRenderContext renderContext)
-		{
-			this.renderContext = renderContext;
-		}
 		
 		public void hierarchyChanged(HierarchyEvent e)
 		{
 			if((e.getID() & HierarchyEvent.HIERARCHY_CHANGED)!=0 & e.getChangedParent()!=null)
 			{
 				Dimension d = e.getChangedParent().getPreferredSize();
-				renderContext.setViewportSize(d.width, d.height);
+				setViewportSize(d.width, d.height);
 			}
 		}
 	}
-
-	private SWRenderContext renderContext;
+	
+	/**
+	 * Renders frames into the back buffers until it is interrupted.
+	 */
+	private class RenderThread extends Thread {
+		
+		public RenderThread()
+		{
+			super("SWJPanel render thread");
+			setDaemon(true);
+		}
 		
+		public void run()
+		{
+			try {
+				while(!isInterrupted())
+				{
+					BufferedImage back = acquireBackBuffer();
+					renderContext.setColorBuffer(back);
+					renderContext.display();
+					publish(back);
+					repaint();
+				}
+			} catch(InterruptedException e) {
+			}
+		}
+	}
+	
+	private SWRenderContext renderContext;
+	
+	/**
+	 * The buffers of the asynchronous mode. The render thread takes its
+	 * back buffer from the free buffers. A completed frame waits in ready
+	 * until <code>paintComponent</code> presents it, then it becomes the
+	 * front buffer, and the previous front buffer is free again. All fields
+	 * below are guarded by lock.
+	 */
+	private final Object lock = new Object();
+	private RenderThread renderThread;
+	private int bufferCount = 2;
+	private int allocatedBuffers;
+	private ArrayDeque<BufferedImage> free = new ArrayDeque<BufferedImage>();
+	private BufferedImage front, ready;
+	private long readyTime;
+	
+	/**
+	 * A viewport size that the render thread applies before its next frame.
+	 */
+	private boolean resizePending;
+	private int pendingWidth, pendingHeight;
+	
+	private long renderedFrames, presentedFrames, latency;
+	
 	public SWJPanel(SWRenderContext renderContext)
 	{
 		this.renderContext = renderContext;
-		this.addHierarchyBoundsListener(new SWPanelHierarchyBoundsListener(renderContext));
-		this.addHierarchyListener(new SWPanelHierarchyListener(renderContext));
+		this.addHierarchyBoundsListener(new SWPanelHierarchyBoundsListener());
+		this.addHierarchyListener(new SWPanelHierarchyListener());
 		this.setFocusable(true);
 	}
 	
 	/**
-	 * Redirect paint requests to the renderer.
+	 * Redirect paint requests to the renderer. In the asynchronous mode,
+	 * the last completed frame is drawn.
 	 */
 	public void paintComponent(Graphics g)
 	{
-		renderContext.display();
-		((Graphics2D)g).drawImage(renderContext.getColorBuffer(), null, 0, 0);
+		BufferedImage image;
+		synchronized(lock)
+		{
+			if(renderThread == null)
+			{
+				renderContext.display();
+				renderedFrames++;
+				presentedFrames++;
+				image = renderContext.getColorBuffer();
+			}
+			else
+			{
+				if(ready != null)
+				{
+					if(front != null)
+						free.add(front);
+					front = ready;
+					ready = null;
+					presentedFrames++;
+					latency += System.nanoTime() - readyTime;
+					lock.notifyAll();
+				}
+				image = front;
+			}
+		}
+		if(image != null)
+			((Graphics2D)g).drawImage(image, null, 0, 0);
 	}
 	
 	public void reshape()
 	{
 	}
+	
+	/**
+	 * Switch the asynchronous mode on or off. Switching it off waits until
+	 * the render thread has finished its frame.
+	 */
+	public void setAsynchronous(boolean asynchronous)
+	{
+		synchronized(lock)
+		{
+			if(asynchronous == (renderThread != null))
+				return;
+		}
+		if(asynchronous)
+			startRenderThread();
+		else
+			stopRenderThread();
+	}
+	
+	public boolean isAsynchronous()
+	{
+		synchronized(lock)
+		{
+			return renderThread != null;
+		}
+	}
+	
+	/**
+	 * Set the number of buffers of the asynchronous mode, 2 for double
+	 * buffering and 3 for triple buffering. The default is 2.
+	 */
+	public void setBufferCount(int bufferCount)
+	{
+		if(bufferCount != 2 && bufferCount != 3)
+			throw new IllegalArgumentException("Buffer count must be 2 or 3.");
+		boolean asynchronous = isAsynchronous();
+		stopRenderThread();
+		synchronized(lock)
+		{
+			this.bufferCount = bufferCount;
+		}
+		if(asynchronous)
+			startRenderThread();
+	}
+	
+	public int getBufferCount()
+	{
+		synchronized(lock)
+		{
+			return bufferCount;
+		}
+	}
+	
+	/**
+	 * @return the number of frames that were rendered.
+	 */
+	public long getRenderedFrames()
+	{
+		synchronized(lock)
+		{
+			return renderedFrames;
+		}
+	}
+	
+	/**
+	 * @return the number of frames that were drawn by
+	 * <code>paintComponent</code>. With triple buffering, this can be less
+	 * than the number of rendered frames.
+	 */
+	public long getPresentedFrames()
+	{
+		synchronized(lock)
+		{
+			return presentedFrames;
+		}
+	}
+	
+	/**
+	 * @return the average time in milliseconds from the completion of a
+	 * frame to its presentation, which is 0 outside the asynchronous mode.
+	 */
+	public double getLatency()
+	{
+		synchronized(lock)
+		{
+			return presentedFrames == 0 ? 0 : latency*1e-6/presentedFrames;
+		}
+	}
+	
+	private void startRenderThread()
+	{
+		synchronized(lock)
+		{
+			renderThread = new RenderThread();
+			renderThread.start();
+		}
+	}
+	
+	private void stopRenderThread()
+	{
+		RenderThread thread;
+		synchronized(lock)
+		{
+			thread = renderThread;
+			if(thread == null)
+				return;
+			thread.interrupt();
+		}
+		// paintComponent keeps drawing the front buffer until the thread is done
+		boolean interrupted = false;
+		while(thread.isAlive())
+		{
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		synchronized(lock)
+		{
+			renderThread = null;
+			// the buffers are reallocated when the render thread is started again
+			free.clear();
+			front = ready = null;
+			allocatedBuffers = 0;
+			if(resizePending)
+			{
+				renderContext.setViewportSize(pendingWidth, pendingHeight);
+				resizePending = false;
+			}
+		}
+	}
+	
+	/**
+	 * Resize the viewport. In the asynchronous mode, the render thread
+	 * resizes it before its next frame.
+	 */
+	private void setViewportSize(int width, int height)
+	{
+		synchronized(lock)
+		{
+			if(renderThread == null)
+			{
+				renderContext.setViewportSize(width, height);
+				return;
+			}
+			resizePending = true;
+			pendingWidth = width;
+			pendingHeight = height;
+			lock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Called by the render thread to get the buffer for its next frame.
+	 * Waits until a buffer is free or a viewport size is known. Buffers of
+	 * a previous viewport size are replaced.
+	 */
+	private BufferedImage acquireBackBuffer() throws InterruptedException
+	{
+		synchronized(lock)
+		{
+			while(true)
+			{
+				if(resizePending)
+				{
+					renderContext.setViewportSize(pendingWidth, pendingHeight);
+					resizePending = false;
+				}
+				BufferedImage current = renderContext.getColorBuffer();
+				if(current != null && (!free.isEmpty() || allocatedBuffers < bufferCount))
+				{
+					int width = current.getWidth(), height = current.getHeight();
+					BufferedImage back = free.poll();
+					if(back == null)
+						allocatedBuffers++;
+					if(back == null || back.getWidth() != width || back.getHeight() != height)
+						back = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+					return back;
+				}
+				lock.wait();
+			}
+		}
+	}
+	
+	/**
+	 * Called by the render thread when a frame is complete. With double
+	 * buffering, it waits until the last frame was presented. With triple
+	 * buffering, it replaces a frame that was not presented yet.
+	 */
+	private void publish(BufferedImage back) throws InterruptedException
+	{
+		synchronized(lock)
+		{
+			if(bufferCount == 2)
+			{
+				while(ready != null)
+					lock.wait();
+			}
+			else if(ready != null)
+				free.add(ready);
+			ready = back;
+			readyTime = System.nanoTime();
+			renderedFrames++;
+		}
+	}
 }
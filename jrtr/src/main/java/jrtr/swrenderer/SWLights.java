@@ -0,0 +1,151 @@
+package jrtr.swrenderer;
+
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+import jrtr.Light;
+import jrtr.Material;
+import jrtr.RenderList;
+
+/**
+ * The light sources of a frame in camera coordinates, as they are read by
+ * the {@link SWShader}s. The {@link SWRenderContext} gathers them once per
+ * frame from the lights of its {@link RenderList}.
+ * <p>
+ * Light i is stored at index 4*i of {@link #positions}: (x, y, z, 1) for
+ * point and spot lights, and the direction (x, y, z, 0) towards the light
+ * for directional lights. Its colors are at index 3*i of {@link #diffuse}
+ * and {@link #specular}. The ambient light of all lights is summed up.
+ */
+public class SWLights {
+	
+	public int count;
+	public float[] positions = new float[0];
+	public float[] diffuse = new float[0];
+	public float[] specular = new float[0];
+	public final float[] ambient = new float[3];
+	
+	private Vector3f v = new Vector3f();
+	
+	/**
+	 * Collects the lights of the render list and transforms them to camera
+	 * coordinates.
+	 */
+	void set(RenderList lights, Matrix4f camera)
+	{
+		count = 0;
+		Arrays.fill(ambient, 0);
+		ensureCapacity(lights.getLightCount());
+		for(int i=0; i<lights.getLightCount(); i++)
+		{
+			Light l = lights.getLight(i);
+			float w;
+			if(l.type == Light.Type.DIRECTIONAL)
+			{
+				camera.transform(l.direction, v);
+				v.normalize();
+				w = 0;
+			}
+			else
+			{
+				// the position is a point, so it is also translated
+				camera.transform(l.position, v);
+				v.x += camera.m03;
+				v.y += camera.m13;
+				v.z += camera.m23;
+				w = 1;
+			}
+			setLight(count, v.x, v.y, v.z, w, l.diffuse.x, l.diffuse.y, l.diffuse.z,
+					l.specular.x, l.specular.y, l.specular.z);
+			ambient[0] += l.ambient.x;
+			ambient[1] += l.ambient.y;
+			ambient[2] += l.ambient.z;
+			count++;
+		}
+	}
+	
+	private void setLight(int i, float x, float y, float z, float w, float dr, float dg, float db,
+			float sr, float sg, float sb)
+	{
+		positions[4*i] = x;
+		positions[4*i+1] = y;
+		positions[4*i+2] = z;
+		positions[4*i+3] = w;
+		diffuse[3*i] = dr;
+		diffuse[3*i+1] = dg;
+		diffuse[3*i+2] = db;
+		specular[3*i] = sr;
+		specular[3*i+1] = sg;
+		specular[3*i+2] = sb;
+	}
+	
+	private void ensureCapacity(int n)
+	{
+		if(4*n <= positions.length)
+			return;
+		int capacity = Math.max(n, 2*positions.length/4);
+		positions = Arrays.copyOf(positions, 4*capacity);
+		diffuse = Arrays.copyOf(diffuse, 3*capacity);
+		specular = Arrays.copyOf(specular, 3*capacity);
+	}
+	
+	/**
+	 * Evaluates the Phong lighting model for a point in camera coordinates
+	 * with the unit normal n. The diffuse and ambient light, which is
+	 * modulated by textures, is stored in rgb[0..2], the specular light in
+	 * rgb[3..5].
+	 */
+	public void shade(Material m, float nx, float ny, float nz, float px, float py, float pz, float[] rgb)
+	{
+		rgb[0] = m.ambient.x*ambient[0];
+		rgb[1] = m.ambient.y*ambient[1];
+		rgb[2] = m.ambient.z*ambient[2];
+		rgb[3] = rgb[4] = rgb[5] = 0;
+		
+		// direction to the eye, which is at the origin
+		float eyeLength = (float)Math.sqrt(px*px + py*py + pz*pz);
+		float ex = 0, ey = 0, ez = 1;
+		if(eyeLength > 0)
+		{
+			ex = -px/eyeLength;
+			ey = -py/eyeLength;
+			ez = -pz/eyeLength;
+		}
+		
+		for(int i=0; i<count; i++)
+		{
+			float lx = positions[4*i], ly = positions[4*i+1], lz = positions[4*i+2];
+			if(positions[4*i+3] != 0)
+			{
+				lx -= px;
+				ly -= py;
+				lz -= pz;
+				float length = (float)Math.sqrt(lx*lx + ly*ly + lz*lz);
+				if(length == 0)
+					continue;
+				lx /= length;
+				ly /= length;
+				lz /= length;
+			}
+			float ndotl = nx*lx + ny*ly + nz*lz;
+			if(ndotl <= 0)
+				continue;
+			rgb[0] += m.diffuse.x*diffuse[3*i]*ndotl;
+			rgb[1] += m.diffuse.y*diffuse[3*i+1]*ndotl;
+			rgb[2] += m.diffuse.z*diffuse[3*i+2]*ndotl;
+			
+			// the light reflected at the normal
+			float rx = 2*ndotl*nx - lx, ry = 2*ndotl*ny - ly, rz = 2*ndotl*nz - lz;
+			float rdote = rx*ex + ry*ey + rz*ez;
+			if(rdote > 0)
+			{
+				float s = (float)Math.pow(rdote, m.shininess);
+				rgb[3] += m.specular.x*specular[3*i]*s;
+				rgb[4] += m.specular.y*specular[3*i+1]*s;
+				rgb[5] += m.specular.z*specular[3*i+2]*s;
+			}
+		}
+	}
+}
@@ -3,136 +3,749 @@ package jrtr.swrenderer;
 import jrtr.Material;
 import jrtr.RenderContext;
 import jrtr.RenderItem;
+import jrtr.RenderItemSorter;
+import jrtr.RenderList;
 import jrtr.SceneManagerInterface;
-import jrtr.SceneManagerIterator;
 import jrtr.Shader;
 import jrtr.Texture;
 import jrtr.VertexData;
 import jrtr.glrenderer.GLRenderPanel;
 
 import java.awt.image.*;
-import java.util.ListIterator;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.vecmath.Matrix3d;
-import javax.vecmath.Matrix3f;
 import javax.vecmath.Matrix4f;
-import javax.vecmath.Vector2f;
-import javax.vecmath.Vector3d;
-import javax.vecmath.Vector3f;
-import javax.vecmath.Vector4f;
 
 
 /**
  * A skeleton for a software renderer. It works in combination with
- * {@link SWRenderPanel}, which displays the output image. In project 3 
+ * {@link SWRenderPanel}, which displays the output image. In project 3
  * you will implement your own rasterizer in this class.
  * <p>
- * To use the software renderer, you will simply replace {@link GLRenderPanel} 
+ * To use the software renderer, you will simply replace {@link GLRenderPanel}
  * with {@link SWRenderPanel} in the user application.
+ * <p>
+ * Triangles are not rasterized immediately. They are transformed and binned
+ * into fixed-size screen tiles, and at the end of the frame the tiles are
+ * rasterized in parallel on a {@link ForkJoinPool}. Every pixel belongs to
+ * exactly one tile and the triangles of a tile are rasterized in submission
+ * order, so the image does not depend on the tile size or the number of
+ * threads. With one thread the tiles are rasterized serially on the calling
+ * thread.
+ * <p>
+ * All buffers (see {@link SWFrameState}), the triangles and the tiles are
+ * reused from frame to frame. Once the viewport size is stable and the
+ * buffers have grown to the size of the scene, rendering a frame does not
+ * allocate memory.
  */
 public class SWRenderContext implements RenderContext {
-
+	
+	/**
+	 * Edge length of the pixel blocks the rasterizer steps through.
+	 */
+	private static final int BLOCK_SIZE = SWFrameState.BLOCK_SIZE;
+	
+	/**
+	 * Screen coordinates are snapped to 1/SUBPIXELS of a pixel.
+	 */
+	static final int SUBPIXEL_BITS = 4;
+	static final int SUBPIXELS = 1 << SUBPIXEL_BITS;
+	
+	/**
+	 * The sample positions of the multisample modes relative to the pixel, 
+	 * in 1/SUBPIXELS of a pixel, as (x, y) pairs. These are the standard 
+	 * patterns of Direct3D for 4 and 8 samples. Every sample has a row and 
+	 * a column of its own, so nearly horizontal and nearly vertical edges 
+	 * get as many levels of coverage as there are samples.
+	 */
+	private static final int[] SAMPLE_PATTERN_1 = {0, 0};
+	private static final int[] SAMPLE_PATTERN_4 = {-2, -6, 6, -2, -6, 2, 2, 6};
+	private static final int[] SAMPLE_PATTERN_8 = {1, -3, -1, 3, 5, 1, -3, -5, -5, 5, -7, -1, 3, 7, 7, -7};
+	static final int MAX_SAMPLES = 8;
+	
+	/**
+	 * The size classes of the adaptive rasterization. Triangles whose 
+	 * bounding box is at most SMALL_TRIANGLE_SIZE pixels wide and high are 
+	 * small, triangles with an area of at least LARGE_TRIANGLE_AREA pixels 
+	 * are large.
+	 */
+	private static final int SMALL_TRIANGLE_SIZE = 4;
+	private static final int LARGE_TRIANGLE_AREA = BLOCK_SIZE*BLOCK_SIZE;
+	
+	/**
+	 * The number of call sites of the fragment stages, see 
+	 * {@link #shadeFragment}.
+	 */
+	private static final int SHADER_SLOTS = 4;
+	
 	private SceneManagerInterface sceneManager;
-	private BufferedImage colorBuffer;
-	private BufferedImage texture=null;
+	private SWFrameState frame;
+	private SWTexture texture=null;
 	private Material material=null;
-		
+	
+	/**
+	 * The varyings that the shading of the current material reads, one bit 
+	 * per varying. Only their planes are set up.
+	 */
+	private int varyingMask;
+	
+	/**
+	 * The shader of the current material, null for the built-in shading, 
+	 * and the shader selected with {@link #useShader(Shader)}.
+	 */
+	private SWShader shader;
+	private SWShader activeShader;
+	private SWShader[] shaderSlots = new SWShader[SHADER_SLOTS];
+	private Material defaultMaterial = new Material();
+	
+	/**
+	 * The lights of the frame, and the vertex that is passed to the vertex 
+	 * stages.
+	 */
+	private SWLights lights = new SWLights();
+	private SWVertex vertex = new SWVertex();
+	private float[] vertexVaryings = new float[SWClipper.VARYINGS];
+	
+	private int tileSize = 64;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private ForkJoinPool pool;
+	private TileTask[] workers;
+	private AtomicInteger nextTile = new AtomicInteger();
+	private SWTile[] tiles = new SWTile[0];
+	private int tilesX, tilesY;
+	private SWStatistics statistics = new SWStatistics();
+	
+	/**
+	 * Pool of triangles, the first nTriangles are used in the current frame.
+	 */
+	private ArrayList<SWTriangle> triangles = new ArrayList<SWTriangle>();
+	private int nTriangles;
+	
+	private Matrix4f objectToClipCoord = new Matrix4f();
+	private SWClipper clipper = new SWClipper();
+	private SWVertexBuffer vertexBuffer = new SWVertexBuffer();
+	
+	/**
+	 * The fixed point screen coordinates of the triangle in setup.
+	 */
+	private long[] fixedX = new long[3], fixedY = new long[3];
+	
+	private boolean coverageCountMode;
+	private boolean visibilityBufferMode;
+	private boolean depthPrepassMode;
+	private boolean sortFrontToBack;
+	private boolean adaptiveRasterization = true;
+	private RenderItemSorter sorter = new RenderItemSorter();
+	private RenderList renderList = new RenderList();
+	
+	/**
+	 * The scene is read while holding the scene lock, see 
+	 * {@link #getSceneLock()}. The transformations of the render list, the 
+	 * camera matrix, the projection matrix and the lights are copied then, so 
+	 * the frame is rasterized without the lock.
+	 */
+	private final Object sceneLock = new Object();
+	private Matrix4f cameraMatrix = new Matrix4f(), projectionMatrix = new Matrix4f();
+	
+	/**
+	 * The incremental rendering, see {@link #setIncrementalRendering(boolean)}. 
+	 * If invalid is set, all tiles of the next frame are rendered. The 
+	 * color buffer of the last frame is kept to copy the unchanged tiles if 
+	 * the color buffer is replaced.
+	 */
+	private boolean incrementalRendering;
+	private boolean invalid = true;
+	private SWDamageTracker damage = new SWDamageTracker();
+	private int[] previousColor;
+	
+	/**
+	 * The number of samples per pixel, and their positions in pixels.
+	 */
+	private int sampleCount = 1;
+	private int[] samplePattern = SAMPLE_PATTERN_1;
+	private float[] sampleX = new float[MAX_SAMPLES], sampleY = new float[MAX_SAMPLES];
+	
+	/**
+	 * Zeros used for vertex attributes that a shape does not provide.
+	 */
+	private float[] zeros = new float[0];
+	
 	public void setSceneManager(SceneManagerInterface sceneManager)
 	{
 		this.sceneManager = sceneManager;
 	}
 	
 	/**
-	 * This is called by the SWRenderPanel to render the scene to the 
+	 * Returns the lock that the renderer holds while it reads the scene, 
+	 * i.e., while the scene manager fills the render list and the camera, 
+	 * the frustum and the lights are copied. When another thread renders 
+	 * the frames, as in the asynchronous mode of the {@link SWJPanel}, the 
+	 * application changes the scene only while it holds this lock.
+	 */
+	public Object getSceneLock()
+	{
+		return sceneLock;
+	}
+	
+	/**
+	 * Set the edge length in pixels of the screen tiles the triangles are
+	 * binned into. The size is rounded up to a multiple of the rasterizer's
+	 * block size of 8 pixels.
+	 */
+	public void setTileSize(int tileSize)
+	{
+		if(tileSize < 1)
+			throw new IllegalArgumentException("Tile size must be positive.");
+		this.tileSize = (tileSize+BLOCK_SIZE-1)&~(BLOCK_SIZE-1);
+		if(frame != null)
+			createTiles(frame.width, frame.height);
+	}
+	
+	public int getTileSize()
+	{
+		return tileSize;
+	}
+	
+	/**
+	 * Set the number of threads that rasterize the screen tiles. With one
+	 * thread the tiles are rasterized on the thread calling {@link #display()}.
+	 */
+	public void setThreadCount(int threadCount)
+	{
+		if(threadCount < 1)
+			throw new IllegalArgumentException("Thread count must be positive.");
+		this.threadCount = threadCount;
+		if(pool != null)
+		{
+			pool.shutdown();
+			pool = null;
+		}
+	}
+	
+	public int getThreadCount()
+	{
+		return threadCount;
+	}
+	
+	/**
+	 * @return the counters of the last rendered frame.
+	 */
+	public SWStatistics getStatistics()
+	{
+		return statistics;
+	}
+	
+	/**
+	 * A debug mode for checking the rasterizer. Instead of the color of the 
+	 * pixels, the color buffer counts how many triangles cover each pixel. 
+	 * There is no depth test.
+	 */
+	public void setCoverageCountMode(boolean coverageCountMode)
+	{
+		this.coverageCountMode = coverageCountMode;
+		invalid = true;
+	}
+	
+	public boolean isCoverageCountMode()
+	{
+		return coverageCountMode;
+	}
+	
+	/**
+	 * In the visibility buffer mode, the tiles are rendered in two passes. 
+	 * The first pass rasterizes the triangles and only stores the visible 
+	 * triangle of every pixel, along with its depth. The second pass then 
+	 * shades every pixel that is covered once, with the attributes of its 
+	 * visible triangle. This avoids shading pixels that are overdrawn later, 
+	 * which pays off if triangles are not drawn from front to back.
+	 */
+	public void setVisibilityBufferMode(boolean visibilityBufferMode)
+	{
+		this.visibilityBufferMode = visibilityBufferMode;
+	}
+	
+	public boolean isVisibilityBufferMode()
+	{
+		return visibilityBufferMode;
+	}
+	
+	/**
+	 * In the depth prepass mode, the tiles are rendered in two passes. The 
+	 * first pass rasterizes the triangles into the depth buffer only. The 
+	 * second pass rasterizes them again, from the same triangle setup, and 
+	 * shades a fragment only if its depth equals the depth buffer, i.e., if 
+	 * it is the front-most fragment of its pixel. This has no effect in the 
+	 * visibility buffer mode.
+	 */
+	public void setDepthPrepassMode(boolean depthPrepassMode)
+	{
+		this.depthPrepassMode = depthPrepassMode;
+	}
+	
+	public boolean isDepthPrepassMode()
+	{
+		return depthPrepassMode;
+	}
+	
+	/**
+	 * Draw the opaque shapes of the scene from front to back, see 
+	 * {@link RenderItemSorter}. Then the depth test, and the hierarchical 
+	 * depth test in particular, rejects more of the hidden fragments before 
+	 * they are shaded.
+	 */
+	public void setSortFrontToBack(boolean sortFrontToBack)
+	{
+		this.sortFrontToBack = sortFrontToBack;
+		invalid = true;
+	}
+	
+	public boolean isSortFrontToBack()
+	{
+		return sortFrontToBack;
+	}
+	
+	/**
+	 * Rasterize triangles depending on their size on the screen, which is 
+	 * the default. Small triangles, which cover only a few pixels, test 
+	 * their pixels one by one and skip the setup of the block walk. Large 
+	 * triangles test the edge functions at the corners of each block first, 
+	 * to skip the blocks outside of the triangle and the edge tests of the 
+	 * blocks inside of it. All other triangles, and all triangles if this is 
+	 * off, test every pixel of the blocks they overlap. The result is the 
+	 * same in all cases. Multisampling always uses the block walk.
+	 */
+	public void setAdaptiveRasterization(boolean adaptiveRasterization)
+	{
+		this.adaptiveRasterization = adaptiveRasterization;
+	}
+	
+	public boolean isAdaptiveRasterization()
+	{
+		return adaptiveRasterization;
+	}
+	
+	/**
+	 * In the incremental rendering, only the screen tiles that changed 
+	 * since the last frame are cleared and rasterized, and only the render 
+	 * items that overlap them are drawn. A tile changed if the projected 
+	 * bounding sphere of a render item whose shape or transformation 
+	 * changed overlapped it in the last frame or overlaps it now, see 
+	 * {@link SWDamageTracker}. If the camera or the projection changes, all 
+	 * tiles are rendered. Other changes of the scene, e.g., of vertex data, 
+	 * materials or lights, are not detected and need a call to 
+	 * {@link #invalidate()}. The image is the same as without the 
+	 * incremental rendering.
+	 */
+	public void setIncrementalRendering(boolean incrementalRendering)
+	{
+		this.incrementalRendering = incrementalRendering;
+		invalid = true;
+	}
+	
+	public boolean isIncrementalRendering()
+	{
+		return incrementalRendering;
+	}
+	
+	/**
+	 * Render all tiles in the next frame of the incremental rendering.
+	 */
+	public void invalidate()
+	{
+		invalid = true;
+	}
+	
+	/**
+	 * Set the number of samples per pixel, 1, 4 or 8. With more than one 
+	 * sample, the coverage and the depth test are evaluated per sample, 
+	 * which smooths the edges of the triangles. A triangle is still shaded 
+	 * only once per pixel, and its color is stored for the samples that 
+	 * passed the depth test. At the end of the frame, the samples are 
+	 * averaged into the color buffer in a separate pass over the tiles. Only 
+	 * the depth buffer and a sample color buffer are allocated per sample. 
+	 * The visibility buffer and the depth prepass mode have no effect with 
+	 * multisampling.
+	 */
+	public void setSampleCount(int sampleCount)
+	{
+		if(sampleCount == 1)
+			samplePattern = SAMPLE_PATTERN_1;
+		else if(sampleCount == 4)
+			samplePattern = SAMPLE_PATTERN_4;
+		else if(sampleCount == 8)
+			samplePattern = SAMPLE_PATTERN_8;
+		else
+			throw new IllegalArgumentException("Sample count must be 1, 4 or 8.");
+		this.sampleCount = sampleCount;
+		for(int s=0; s<sampleCount; s++)
+		{
+			sampleX[s] = samplePattern[2*s]/(float)SUBPIXELS;
+			sampleY[s] = samplePattern[2*s+1]/(float)SUBPIXELS;
+		}
+		if(frame != null)
+			setViewportSize(frame.width, frame.height);
+	}
+	
+	public int getSampleCount()
+	{
+		return sampleCount;
+	}
+	
+	/**
+	 * This is called by the SWRenderPanel to render the scene to the
 	 * software frame buffer.
 	 */
 	public void display()
 	{
-		if(sceneManager == null) return;
+		if(sceneManager == null || frame == null) return;
 		
 		beginFrame();
-	
-		SceneManagerIterator iterator = sceneManager.iterator();	
-		while(iterator.hasNext())
+		
+		synchronized(sceneLock)
+		{
+			sceneManager.fillRenderList(renderList);
+			renderList.copyTransformations();
+			cameraMatrix.set(sceneManager.getCamera().getCameraMatrix());
+			projectionMatrix.set(sceneManager.getFrustum().getProjectionMatrix());
+			lights.set(renderList, cameraMatrix);
+		}
+		if(incrementalRendering)
+		{
+			drawChangedItems();
+		}
+		else if(sortFrontToBack)
+		{
+			int n = sorter.sort(renderList);
+			for(int i=0; i<n; i++)
+				draw(sorter.get(i));
+		}
+		else
 		{
-			draw(iterator.next());
-		}		
+			for(int i=0; i<renderList.size(); i++)
+				draw(renderList.get(i));
+		}
 		
 		endFrame();
+		previousColor = frame.color;
 	}
-
+	
+	/**
+	 * Draws the render items that overlap the tiles that changed since the 
+	 * last frame, in the same order as all items are drawn otherwise.
+	 */
+	private void drawChangedItems()
+	{
+		damage.clearItems();
+		if(sortFrontToBack)
+		{
+			int n = sorter.sort(renderList);
+			for(int i=0; i<n; i++)
+				damage.addItem(sorter.get(i));
+		}
+		else
+		{
+			for(int i=0; i<renderList.size(); i++)
+				damage.addItem(renderList.get(i));
+		}
+		
+		// unchanged tiles are copied from the last frame
+		if(previousColor == null || previousColor.length != frame.color.length)
+			invalid = true;
+		statistics.dirtyTiles = damage.update(tiles, tilesX, tileSize, frame.width, frame.height,
+				cameraMatrix, projectionMatrix, invalid);
+		invalid = false;
+		
+		for(int i=0; i<damage.getNumberOfItems(); i++)
+		{
+			if(damage.overlapsDirtyTile(tiles, tilesX, i))
+				draw(damage.getItem(i));
+			else
+				statistics.skippedRenderItems++;
+		}
+	}
+	
 	/**
 	 * This is called by the {@link SWJPanel} to obtain the color buffer that
 	 * will be displayed.
 	 */
 	public BufferedImage getColorBuffer()
 	{
-		return colorBuffer;
+		return frame == null ? null : frame.image;
 	}
 	
 	/**
-	 * Set a new viewport size. The render context will also need to store
-	 * a viewport matrix, which you need to reset here. 
+	 * Render the next frames into the given image, which must be of type
+	 * TYPE_INT_RGB and have the size of the viewport. The asynchronous mode
+	 * of the {@link SWJPanel} uses this to render into its back buffers.
 	 */
-	public void setViewportSize(int width, int height)
+	void setColorBuffer(BufferedImage image)
 	{
-		colorBuffer = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		frame.setImage(image);
 	}
+	
+	/**
+	 * Set a new viewport size. The frame buffers are only reallocated if 
+	 * the size changes.
+	 */
+	public void setViewportSize(int width, int height)
+	{
+		if(frame != null && frame.width == width && frame.height == height && frame.samples == sampleCount)
+			return;
 		
+		frame = new SWFrameState(width, height, sampleCount);
+		createTiles(width, height);
+	}
+	
+	/**
+	 * Split the screen into tiles of tileSize x tileSize pixels. The tiles
+	 * at the right and bottom border may be smaller.
+	 */
+	private void createTiles(int width, int height)
+	{
+		invalid = true;
+		tilesX = (width+tileSize-1)/tileSize;
+		tilesY = (height+tileSize-1)/tileSize;
+		tiles = new SWTile[tilesX*tilesY];
+		for(int ty=0; ty<tilesY; ty++)
+		{
+			for(int tx=0; tx<tilesX; tx++)
+			{
+				tiles[ty*tilesX+tx] = new SWTile(tx*tileSize, ty*tileSize,
+						Math.min((tx+1)*tileSize, width)-1, Math.min((ty+1)*tileSize, height)-1, lights);
+			}
+		}
+	}
+	
 	/**
 	 * Clear the framebuffer here.
 	 */
 	private void beginFrame()
 	{
+		// the incremental rendering clears the changed tiles only
+		if(!incrementalRendering)
+			frame.clear();
+		nTriangles = 0;
+		for(SWTile tile : tiles)
+		{
+			tile.clear();
+			tile.dirty = true;
+		}
+		statistics.clear();
+		statistics.dirtyTiles = tiles.length;
 	}
 	
+	/**
+	 * Bin the triangles of the frame into the screen tiles and rasterize
+	 * the tiles. With multisampling, the samples are resolved in a second 
+	 * pass over the tiles.
+	 */
 	private void endFrame()
-	{		
+	{
+		for(int i=0; i<nTriangles; i++)
+		{
+			SWTriangle t = triangles.get(i);
+			int minTX = t.minX/tileSize, maxTX = t.maxX/tileSize;
+			int minTY = t.minY/tileSize, maxTY = t.maxY/tileSize;
+			for(int ty=minTY; ty<=maxTY; ty++)
+			{
+				for(int tx=minTX; tx<=maxTX; tx++)
+				{
+					SWTile tile = tiles[ty*tilesX+tx];
+					if(tile.dirty)
+						tile.addTriangle(i);
+				}
+			}
+		}
+		
+		processTiles(false);
+		if(frame.samples > 1 && !coverageCountMode)
+			processTiles(true);
+		
+		for(SWTile tile : tiles)
+			statistics.add(tile.statistics);
+	}
+	
+	/**
+	 * Rasterizes or resolves all tiles, in parallel if there is more than 
+	 * one thread. Unchanged tiles of the incremental rendering are skipped, 
+	 * or copied if the color buffer was replaced.
+	 */
+	private void processTiles(boolean resolve)
+	{
+		if(threadCount == 1)
+		{
+			for(SWTile tile : tiles)
+				processTile(tile, resolve);
+		}
+		else
+		{
+			if(pool == null)
+			{
+				pool = new ForkJoinPool(threadCount);
+				workers = new TileTask[threadCount];
+				for(int i=0; i<threadCount; i++)
+					workers[i] = new TileTask();
+			}
+			nextTile.set(0);
+			for(TileTask worker : workers)
+			{
+				worker.reinitialize();
+				worker.resolve = resolve;
+				pool.execute(worker);
+			}
+			for(TileTask worker : workers)
+				worker.join();
+		}
+	}
+	
+	private void processTile(SWTile tile, boolean resolve)
+	{
+		if(!tile.dirty)
+		{
+			if(!resolve && previousColor != frame.color)
+				frame.copyColor(previousColor, tile.minX, tile.minY, tile.maxX, tile.maxY);
+		}
+		else if(resolve)
+		{
+			frame.resolve(tile.minX, tile.minY, tile.maxX, tile.maxY);
+		}
+		else
+		{
+			if(incrementalRendering)
+				frame.clear(tile.minX, tile.minY, tile.maxX, tile.maxY);
+			rasterizeTile(tile);
+		}
+	}
+	
+	/**
+	 * Rasterizes or resolves tiles until all tiles of the frame are taken. 
+	 * There is one task per thread of the {@link ForkJoinPool}, and the 
+	 * tasks are reused in every frame.
+	 */
+	private class TileTask extends RecursiveAction {
+		
+		static final long serialVersionUID = 0;
+		
+		boolean resolve;
+		
+		protected void compute()
+		{
+			int i;
+			while((i = nextTile.getAndIncrement()) < tiles.length)
+			{
+				processTile(tiles[i], resolve);
+			}
+		}
+	}
+	
+	private void rasterizeTile(SWTile tile)
+	{
+		if(frame.samples > 1 && !coverageCountMode)
+		{
+			for(int i=0; i<tile.getNumberOfTriangles(); i++)
+				rasterizeTriangleMultisampled(triangles.get(tile.getTriangle(i)), tile);
+			return;
+		}
+		for(int i=0; i<tile.getNumberOfTriangles(); i++)
+		{
+			int t = tile.getTriangle(i);
+			rasterizeTriangle(triangles.get(t), t, tile);
+		}
+		if(visibilityBufferMode)
+		{
+			shadeTile(tile);
+		}
+		else if(depthPrepassMode)
+		{
+			frame.beginEqualDepthPass(tile.minX, tile.minY, tile.maxX, tile.maxY);
+			for(int i=0; i<tile.getNumberOfTriangles(); i++)
+				shadeFrontFragments(triangles.get(tile.getTriangle(i)), tile);
+		}
+	}
+	
+	/**
+	 * The second pass of the visibility buffer mode. Shades the pixels of 
+	 * the tile that were covered by a triangle.
+	 */
+	private void shadeTile(SWTile tile)
+	{
+		float[] depthBuffer = frame.depth;
+		int[] visibility = frame.visibility;
+		int[] colorBuffer = frame.color;
+		int shadedPixels = 0;
+		for(int y=tile.minY; y<=tile.maxY; y++)
+		{
+			int index = y*frame.width + tile.minX;
+			for(int x=tile.minX; x<=tile.maxX; x++, index++)
+			{
+				// the depth buffer is cleared to 1
+				if(depthBuffer[index] < 1)
+				{
+					SWTriangle triangle = triangles.get(visibility[index]);
+					float[] w = triangle.oneOverW;
+					colorBuffer[index] = shadePixel(x, y, w[0]*x + w[1]*y + w[2], triangle, tile.fragment);
+					shadedPixels++;
+				}
+			}
+		}
+		tile.statistics.shadedPixels += shadedPixels;
 	}
 	
 	/**
-	 * The main rendering method. You will need to implement this to draw
-	 * 3D objects.
+	 * @return an unused triangle from the triangle pool.
+	 */
+	private SWTriangle nextTriangle()
+	{
+		if(nTriangles == triangles.size())
+			triangles.add(new SWTriangle());
+		return triangles.get(nTriangles);
+	}
+	
+	/**
+	 * @return an array of at least n zeros.
+	 */
+	private float[] getZeros(int n)
+	{
+		if(zeros.length < n)
+			zeros = new float[n];
+		return zeros;
+	}
+	
+	/**
+	 * The main rendering method. Transforms the vertices of the render item
+	 * and collects its front facing triangles for rasterization at the end
+	 * of the frame.
 	 */
 	private void draw(RenderItem renderItem)
 	{
-		clear();
 		setMaterial(renderItem.getShape().getMaterial());
 		
-		// calculate 3D object coordinates to 2D pixel coordinates projection matrix
+		// calculate 3D object coordinates to clip coordinates projection matrix
 		Matrix4f objMatrix = renderItem.getT();
-		Matrix4f cam = sceneManager.getCamera().getCameraMatrix();
-		Matrix4f projectionMatrix = sceneManager.getFrustum().getProjectionMatrix();
-		Matrix4f viewportMatrix = new Matrix4f();
-		int imageOriginX = colorBuffer.getMinX();
-		int imageOriginY = colorBuffer.getMinY();
-		int height = colorBuffer.getHeight();
-		int width = colorBuffer.getWidth();
-		viewportMatrix.setRow(0, width/2f, 0, 0, (2*imageOriginX+width)/2f);
-		viewportMatrix.setRow(1, 0, -height/2f, 0, (2*imageOriginY+height)/2f);
-		viewportMatrix.setRow(2, 0, 0, 0.5f, 0.5f);
-		viewportMatrix.setRow(3, 0, 0, 0, 1);
-		
-		Matrix4f objectToPixelCoordProj = new Matrix4f(objMatrix);
-		objectToPixelCoordProj.mul(cam, objectToPixelCoordProj);
-		objectToPixelCoordProj.mul(projectionMatrix, objectToPixelCoordProj);
-		objectToPixelCoordProj.mul(viewportMatrix, objectToPixelCoordProj);
+		Matrix4f m = objectToClipCoord;
+		m.set(objMatrix);
+		m.mul(cameraMatrix, m);
+		m.mul(projectionMatrix, m);
 		
 		// collect data from renderItem
 		SWVertexData vertexData = (SWVertexData) renderItem.getShape().getVertexData();
 		
-		ListIterator<VertexData.VertexElement> itr = vertexData.getElements().listIterator(0);
+		LinkedList<VertexData.VertexElement> elements = vertexData.getElements();
 		int numberOfVertices = vertexData.getNumberOfVertices();
-
+		
 		int[] indices = vertexData.getIndices();
-		float[] verticesData = new float[3*numberOfVertices];
-		float[] colorsData = new float[3*numberOfVertices];
-		float[] normalsData = new float[3*numberOfVertices];
-		float[] uvsData = new float[2*numberOfVertices];
+		float[] verticesData = null;
+		float[] colorsData = getZeros(3*numberOfVertices);
+		float[] normalsData = colorsData;
+		float[] uvsData = colorsData;
 		
-		while(itr.hasNext())
+		for(int j=0; j<elements.size(); j++)
 		{
-			VertexData.VertexElement e = itr.next();
+			VertexData.VertexElement e = elements.get(j);
 			switch(e.getSemantic())
 			{
 				case  POSITION:
@@ -157,346 +770,949 @@ public class SWRenderContext implements RenderContext {
 				}
 			}
 		}
+		if(verticesData == null)
+			return;
 		
-		// The zBuffer initialized with zero values
-		double[][] zBuffer = new double[colorBuffer.getWidth()][colorBuffer.getHeight()];
-		for(int x=0; x<zBuffer.length; x++)
+		// transform every vertex once
+		SWVertexBuffer vertices = vertexBuffer;
+		vertices.transform(m, verticesData, numberOfVertices, frame.width, frame.height);
+		statistics.transformedVertices += numberOfVertices;
+		statistics.vertexReferences += indices.length;
+		
+		// run the vertex stage of the shader on every vertex
+		if(shader != null)
 		{
-			for(int y=0; y<zBuffer[0].length; y++)
+			float[] out = vertexVaryings;
+			SWVertexStage vertexStage = shader.getVertexStage();
+			vertex.setShape(objMatrix, cameraMatrix, getMaterial(), lights);
+			for(int i=0; i<numberOfVertices; i++)
 			{
-				zBuffer[x][y]=1;
+				vertex.set(i, verticesData, normalsData, colorsData, uvsData);
+				vertexStage.shade(vertex, out);
+				System.arraycopy(out, 0, vertices.varyings, i*SWClipper.VARYINGS, SWClipper.VARYINGS);
 			}
 		}
-
-		// arrays for the three vertices of the triangle to be rasterized
-		float[][] positions = new float[3][4];
-		float[][] colors = new float[3][3];
-		float[][] normals = new float[3][3];
-		float[][] uvs = new float[3][2];
 		
-		int k = 0;
-		for(int j=0; j<indices.length; j++)
+		// assemble the triangles from the indices
+		float[] x = vertices.x, y = vertices.y, w = vertices.w;
+		int[] outcodes = vertices.outcodes;
+		int[] fixedX = vertices.fixedX, fixedY = vertices.fixedY;
+		for(int j=0; j+2<indices.length; j+=3)
 		{
-
-			int i = indices[j];
-
-			Vector4f vertex = new Vector4f(verticesData[3*i],verticesData[3*i+1],verticesData[3*i+2], 1f);
-			objectToPixelCoordProj.transform(vertex);
-			
-			positions[k][0] = vertex.x;
-			positions[k][1] = vertex.y;
-			positions[k][2] = vertex.z;
-			positions[k][3] = vertex.w;
+			int i0 = indices[j], i1 = indices[j+1], i2 = indices[j+2];
 			
-			colors[k][0] = colorsData[3*i];
-			colors[k][1] = colorsData[3*i+1];
-			colors[k][2] = colorsData[3*i+2];
-			
-			normals[k][0] = normalsData[3*i];
-			normals[k][1] = normalsData[3*i+1];
-			normals[k][2] = normalsData[3*i+2];
-			
-			uvs[k][0] = uvsData[2*i];
-			uvs[k][1] = uvsData[2*i+1]; 
-			
-			k++;
+			// reject triangles that are completely outside of one plane of
+			// the viewing frustum
+			int oc0 = outcodes[i0], oc1 = outcodes[i1], oc2 = outcodes[i2];
+			if((oc0 & oc1 & oc2 & SWClipper.FRUSTUM_PLANES) != 0)
+			{
+				statistics.outsideFrustumTriangles++;
+				continue;
+			}
 			
-			// Exercise 1
-			if(vertex.w>0)
+			// Triangles that are not clipped are rasterized from the fixed 
+			// point screen coordinates of their vertices, so their orientation 
+			// is decided exactly with the same coordinates as in triangle 
+			// setup. Otherwise, the determinant of the matrix with rows 
+			// (x_i, y_i, w_i) has the sign of the orientation of the triangle 
+			// seen from the camera, also for vertices behind the camera. Both 
+			// are positive for counter clockwise, i.e., front facing triangles.
+			float det;
+			if(((oc0 | oc1 | oc2) & SWClipper.CLIP_PLANES) == 0)
+			{
+				long x0 = fixedX[i0], y0 = fixedY[i0];
+				det = (fixedX[i2] - x0)*(fixedY[i1] - y0) - (fixedX[i1] - x0)*(fixedY[i2] - y0);
+			}
+			else
 			{
-				Vector2f imageVertex = new Vector2f(vertex.x/vertex.w, vertex.y/vertex.w);
-				if(imageVertex.x>=0 && imageVertex.x<colorBuffer.getWidth() && imageVertex.y>=0 && imageVertex.y<colorBuffer.getHeight())
-					colorBuffer.setRGB((int) imageVertex.x, (int) imageVertex.y, (int) (Math.pow(2, 24)-1));
+				det = x[i0]*(y[i1]*w[i2] - w[i1]*y[i2]) + y[i0]*(w[i1]*x[i2] - x[i1]*w[i2])
+						+ w[i0]*(x[i1]*y[i2] - y[i1]*x[i2]);
+			}
+			if(det < 0)
+			{
+				statistics.backFacingTriangles++;
+				continue;
+			}
+			if(!(det > 0))
+			{
+				statistics.zeroAreaTriangles++;
+				continue;
 			}
 			
-			// Exercise 2
-			if(k==3)
+			// fetch the attributes of the remaining triangles
+			for(int k=0; k<3; k++)
 			{
-				Matrix3f triangMatrix = new Matrix3f();
-				triangMatrix.setColumn(0, positions[0][0], positions[0][1], positions[0][3]);
-				triangMatrix.setColumn(1, positions[1][0], positions[1][1], positions[1][3]);
-				triangMatrix.setColumn(2, positions[2][0], positions[2][1], positions[2][3]);
-				if(triangMatrix.determinant()>=0)
+				int i = indices[j+k];
+				float[] v = clipper.input[k];
+				v[SWClipper.POSITION] = x[i];
+				v[SWClipper.POSITION+1] = y[i];
+				v[SWClipper.POSITION+2] = vertices.z[i];
+				v[SWClipper.POSITION+3] = w[i];
+				
+				if(shader != null)
 				{
-					rasterizeTriangle(positions, colors, normals, uvs, zBuffer);
+					System.arraycopy(vertices.varyings, i*SWClipper.VARYINGS, v, SWClipper.FIRST_VARYING, SWClipper.VARYINGS);
+					continue;
 				}
-				k=0;
+				
+				v[SWClipper.COLOR] = colorsData[3*i];
+				v[SWClipper.COLOR+1] = colorsData[3*i+1];
+				v[SWClipper.COLOR+2] = colorsData[3*i+2];
+				
+				v[SWClipper.NORMAL] = normalsData[3*i];
+				v[SWClipper.NORMAL+1] = normalsData[3*i+1];
+				v[SWClipper.NORMAL+2] = normalsData[3*i+2];
+				
+				v[SWClipper.TEXCOORD] = uvsData[2*i];
+				v[SWClipper.TEXCOORD+1] = uvsData[2*i+1];
+			}
+			
+			// clip and triangulate the clipped polygon as a fan
+			int n = clipper.clip(oc0 | oc1 | oc2);
+			for(int t=1; t<n-1; t++)
+			{
+				SWTriangle triangle = nextTriangle();
+				setVertex(triangle, 0, clipper.getVertex(0));
+				setVertex(triangle, 1, clipper.getVertex(t));
+				setVertex(triangle, 2, clipper.getVertex(t+1));
+				if(setupTriangle(triangle))
+					nTriangles++;
 			}
 		}
 	}
 	
-	private void rasterizeTriangle(float[][] positions, float[][] colors, float[][] normals, float[][] uvs, double[][] zBuffer)
+	/**
+	 * Sets a vertex of a triangle from a clipped vertex. The position is 
+	 * transformed from clip coordinates to homogeneous pixel coordinates by 
+	 * the viewport transformation.
+	 */
+	private void setVertex(SWTriangle triangle, int k, float[] v)
 	{
-		// homogeneous 2D coordinates - ignore z coordinate
-		float[][] hom2DCoords = new float[3][3];
-		for(int i=0; i<3; i++){
-			hom2DCoords[i][0] = positions[i][0]; // x
-			hom2DCoords[i][1] = positions[i][1]; // y
-			hom2DCoords[i][2] = positions[i][3]; // w
+		float x = v[SWClipper.POSITION], y = v[SWClipper.POSITION+1];
+		float z = v[SWClipper.POSITION+2], w = v[SWClipper.POSITION+3];
+		
+		float[] position = triangle.positions[k];
+		position[0] = frame.width/2f*(x + w);
+		position[1] = frame.height/2f*(w - y);
+		position[2] = 0.5f*(z + w);
+		position[3] = w;
+		
+		System.arraycopy(v, SWClipper.FIRST_VARYING, triangle.varyings[k], 0, SWClipper.VARYINGS);
+	}
+	
+	/**
+	 * Computes the edge functions and the pixel bounding box of a triangle.
+	 * <p>
+	 * The triangle has been clipped against the near plane and the guard 
+	 * band, so all w's are positive and the screen coordinates are bounded. 
+	 * The vertices are snapped to 28.4 fixed point screen coordinates, i.e., 
+	 * to 1/16 of a pixel, and the coverage of a pixel is decided with exact 
+	 * integer edge functions. Pixels on an edge belong to the triangle if 
+	 * the edge is a top or a left edge, so pixels on an edge that is shared 
+	 * by two triangles are drawn exactly once.
+	 * <p>
+	 * The edge function of edge i is zero on the edge and twice the area of 
+	 * the triangle at vertex i. Divided by the area and by w_i, it is the 
+	 * barycentric coordinate of vertex i divided by w, which is used to 
+	 * interpolate the vertex attributes.
+	 * 
+	 * @return false if the triangle is degenerate or outside the screen.
+	 */
+	private boolean setupTriangle(SWTriangle triangle)
+	{
+		float[][] p = triangle.positions;
+		
+		// snap the screen coordinates to 28.4 fixed point
+		long[] fx = fixedX, fy = fixedY;
+		for(int i=0; i<3; i++)
+		{
+			fx[i] = toFixedPoint(p[i][0], p[i][3]);
+			fy[i] = toFixedPoint(p[i][1], p[i][3]);
 		}
 		
-		// calculate barycentric coordinates matrix - edge functions
-		Matrix3f barCoordMatrix = new Matrix3f();
-		barCoordMatrix.setRow(0, hom2DCoords[0]);
-		barCoordMatrix.setRow(1, hom2DCoords[1]);
-		barCoordMatrix.setRow(2, hom2DCoords[2]);
-		barCoordMatrix.invert();
-				
-		// all w's positive
-		if(hom2DCoords[0][2]>0 && hom2DCoords[1][2]>0 && hom2DCoords[2][2]>0)
+		// Edge function i is A_i*X + B_i*Y + C_i for the fixed point sample 
+		// position (X, Y) of a pixel. It is positive inside of front facing 
+		// triangles, since the viewport transformation flips y.
+		long[] f = triangle.fixedEdges;
+		for(int i=0; i<3; i++)
 		{
-			float[][] pixelsOnImagePlane = new float[3][2];
-			for(int i=0; i<3; i++)
-			{
-				// homogeneous division
-				pixelsOnImagePlane[i][0]=hom2DCoords[i][0]/hom2DCoords[i][2]; // x/w
-				pixelsOnImagePlane[i][1]=hom2DCoords[i][1]/hom2DCoords[i][2]; // y/w
-			}
-			
-			int minX=getPixelMinCoord(pixelsOnImagePlane,0);
-			int minY=getPixelMinCoord(pixelsOnImagePlane,1);
-			int maxX=getPixelMaxCoord(pixelsOnImagePlane,0);
-			int maxY=getPixelMaxCoord(pixelsOnImagePlane,1);
-			
-			// test pixels inside bounding box of the triangle
-			for(int x=minX; x<=maxX; x++)
+			int j = (i+1)%3, k = (i+2)%3;
+			f[i] = fy[k] - fy[j];
+			f[3+i] = fx[j] - fx[k];
+			f[6+i] = fx[k]*fy[j] - fx[j]*fy[k];
+		}
+		long area = f[0]*fx[0] + f[3]*fy[0] + f[6];
+		if(area <= 0)
+		{
+			statistics.zeroAreaTriangles++;
+			return false;
+		}
+		
+		// The planes of the edge functions divided by the area and w_i, in 
+		// pixel coordinates.
+		float[] e = triangle.edges;
+		for(int i=0; i<3; i++)
+		{
+			float scale = 1f/(area*p[i][3]);
+			e[i] = f[i]*SUBPIXELS*scale;
+			e[3+i] = f[3+i]*SUBPIXELS*scale;
+			e[6+i] = f[6+i]*scale;
+		}
+		
+		// The offsets of the edge functions from the pixel to its samples, 
+		// and their maximum, to skip pixels where no sample is inside.
+		long[] sampleEdges = triangle.sampleEdges;
+		for(int i=0; i<3; i++)
+		{
+			long max = Long.MIN_VALUE;
+			for(int s=0; s<sampleCount; s++)
 			{
-				for(int y=minY; y<=maxY; y++)
-				{
-					drawPixel(x, y, barCoordMatrix, colors, uvs, zBuffer);
-				}
+				long offset = f[i]*samplePattern[2*s] + f[3+i]*samplePattern[2*s+1];
+				sampleEdges[3*s+i] = offset;
+				max = Math.max(max, offset);
 			}
+			triangle.maxSampleEdges[i] = max;
+		}
+		
+		// Step the edge functions by pixels. Pixels on an edge, where the 
+		// edge function is zero, are only inside if it is a top edge, i.e., 
+		// a horizontal edge with the triangle below it, or a left edge, with 
+		// the triangle to the right of it. For the others, subtract one, so 
+		// that the inside test is edge function >= 0 for all edges.
+		for(int i=0; i<3; i++)
+		{
+			boolean topLeft = f[i] > 0 || (f[i] == 0 && f[3+i] > 0);
+			f[i] *= SUBPIXELS;
+			f[3+i] *= SUBPIXELS;
+			if(!topLeft)
+				f[6+i]--;
 		}
-		else if(hom2DCoords[0][2]<0 && hom2DCoords[1][2]<0 && hom2DCoords[2][2]<0)
+		
+		// 1/w is the sum of the edge functions, z/w is their combination
+		// with the vertex z's. Both are planes in pixel coordinates.
+		float[] oneOverW = triangle.oneOverW;
+		float[] depth = triangle.depth;
+		float z0 = p[0][2], z1 = p[1][2], z2 = p[2][2];
+		for(int i=0; i<3; i++)
 		{
-			// do nothing because triangle is completely behind camera
+			oneOverW[i] = e[3*i] + e[3*i+1] + e[3*i+2];
+			depth[i] = z0*e[3*i] + z1*e[3*i+1] + z2*e[3*i+2];
+		}
+		
+		// the varyings divided by w are planes like 1/w
+		float[] a0 = triangle.varyings[0], a1 = triangle.varyings[1], a2 = triangle.varyings[2];
+		float[] planes = triangle.varyingPlanes;
+		for(int j=0; j<SWClipper.VARYINGS; j++)
+		{
+			if((varyingMask & (1<<j)) == 0)
+				continue;
+			for(int i=0; i<3; i++)
+				planes[3*j+i] = a0[j]*e[3*i] + a1[j]*e[3*i+1] + a2[j]*e[3*i+2];
+		}
+		triangle.texture = texture;
+		triangle.material = getMaterial();
+		if(shader != null)
+		{
+			triangle.fragmentStage = shader.getFragmentStage();
+			triangle.shaderSlot = getShaderSlot(shader);
 		}
 		else
 		{
-			// test all pixels
-			for(int x=0; x<colorBuffer.getWidth(); x++)
-			{
-				for(int y=0; y<colorBuffer.getHeight(); y++)
-				{
-					drawPixel(x, y, barCoordMatrix, colors, uvs, zBuffer);
-				}
-			}
+			triangle.fragmentStage = null;
+			triangle.shaderSlot = -1;
 		}
+		
+		// The pixels are sampled at integer coordinates. The bounding box 
+		// contains the pixels whose sample positions are in the bounding box 
+		// of the fixed point vertices. With multisampling, the samples are 
+		// less than half a pixel away from the pixel.
+		int margin = sampleCount > 1 ? SUBPIXELS/2 : 0;
+		int minX = (int)((Math.min(fx[0], Math.min(fx[1], fx[2])) - margin + SUBPIXELS-1) >> SUBPIXEL_BITS);
+		int minY = (int)((Math.min(fy[0], Math.min(fy[1], fy[2])) - margin + SUBPIXELS-1) >> SUBPIXEL_BITS);
+		int maxX = (int)((Math.max(fx[0], Math.max(fx[1], fx[2])) + margin) >> SUBPIXEL_BITS);
+		int maxY = (int)((Math.max(fy[0], Math.max(fy[1], fy[2])) + margin) >> SUBPIXEL_BITS);
+		if(minX>maxX || minY>maxY)
+		{
+			// the triangle is between the sample positions
+			statistics.zeroAreaTriangles++;
+			return false;
+		}
+		triangle.minX = Math.max(minX, 0);
+		triangle.minY = Math.max(minY, 0);
+		triangle.maxX = Math.min(maxX, frame.width-1);
+		triangle.maxY = Math.min(maxY, frame.height-1);
+		if(triangle.minX>triangle.maxX || triangle.minY>triangle.maxY)
+		{
+			statistics.outsideFrustumTriangles++;
+			return false;
+		}
+		
+		// classify the triangle by its size, the area is twice the area in 
+		// square subpixels
+		boolean adaptive = adaptiveRasterization && sampleCount == 1;
+		if(adaptive && maxX-minX < SMALL_TRIANGLE_SIZE && maxY-minY < SMALL_TRIANGLE_SIZE)
+		{
+			triangle.sizeClass = SWTriangle.SMALL;
+			statistics.smallTriangles++;
+		}
+		else if(adaptive && area >= 2L*LARGE_TRIANGLE_AREA*SUBPIXELS*SUBPIXELS)
+		{
+			triangle.sizeClass = SWTriangle.LARGE;
+			statistics.largeTriangles++;
+		}
+		else
+		{
+			triangle.sizeClass = SWTriangle.MEDIUM;
+			statistics.mediumTriangles++;
+		}
+		return true;
 	}
 	
 	/**
-	 * Calculates the min pixel coordinate of the positions in the specified dimension.
-	 * @param positions The positions to take the min from.
-	 * @param dimension The dimension to take the min from (0: dimension x, 1: dimension y).
-	 * @return the smallest pixel coordinate of the pixels as an integer. The smallest value that will be returned is 0.
+	 * @return the fixed point screen coordinate of the homogeneous pixel 
+	 * coordinate c with the given w.
 	 */
-	private int getPixelMinCoord(float[][] positions, int dimension)
+	static int toFixedPoint(float c, float w)
 	{
-		float min = positions[0][dimension];
-		for(int i=1; i<positions.length; i++)
-		{
-			min = Float.min(min, positions[i][dimension]);
-		}
-		
-		return min < 0 ? 0 : (int)min;
+		return Math.round(c/w*SUBPIXELS);
 	}
 	
 	/**
-	 * Calculates the max pixel coordinate of the positions in the specified dimension.
-	 * @param positions The positions to take the max from.
-	 * @param dimension The dimension to take the max from (0: dimension x, 1: dimension y).
-	 * @return the biggest pixel coordinate of the pixels as an integer. The biggest value that will be returned is colorBuffer.getWidth()-1.
+	 * Rasterizes the part of the triangle that lies in the given tile. The 
+	 * bounding box is walked in blocks of 8x8 pixels that are aligned to 
+	 * the screen. The edge functions, 1/w and z/w are evaluated once per 
+	 * block and then stepped incrementally across the rows and columns of 
+	 * the block. Since tiles are aligned to the blocks, the result of a pixel 
+	 * does not depend on the tile it belongs to.
+	 * <p>
+	 * Before any per-pixel work, the triangle and then each block are tested 
+	 * against the coarse depth buffer of the {@link SWFrameState}. The 
+	 * triangle is skipped if it is behind the maximum depth of all blocks it 
+	 * overlaps, and a block is skipped if the triangle is behind the 
+	 * maximum depth of the block.
+	 * <p>
+	 * Small triangles are handed to {@link #rasterizeSmallTriangle}. For 
+	 * large triangles, the edge functions are evaluated at the corners of 
+	 * each block, which rejects the blocks outside of an edge and accepts 
+	 * the blocks inside of all edges without testing their pixels.
 	 */
-	private int getPixelMaxCoord(float[][] positions, int dimension)
+	private void rasterizeTriangle(SWTriangle triangle, int triangleIndex, SWTile tile)
 	{
-		float max = positions[0][dimension];
-		for(int i=1; i<positions.length; i++)
+		int minX = Math.max(triangle.minX, tile.minX);
+		int minY = Math.max(triangle.minY, tile.minY);
+		int maxX = Math.min(triangle.maxX, tile.maxX);
+		int maxY = Math.min(triangle.maxY, tile.maxY);
+		
+		if(coverageCountMode)
+		{
+			countCoverage(triangle, minX, minY, maxX, maxY);
+			return;
+		}
+		
+		long[] f = triangle.fixedEdges;
+		float[] w = triangle.oneOverW;
+		float[] d = triangle.depth;
+		float[] depthBuffer = frame.depth;
+		float[] blockMaxDepth = frame.blockMaxDepth;
+		int[] colorBuffer = frame.color;
+		int[] visibility = frame.visibility;
+		boolean writeVisibility = visibilityBufferMode;
+		boolean shade = !visibilityBufferMode && !depthPrepassMode;
+		int shadedPixels = 0, depthTestPassedFragments = 0;
+		int width = frame.width;
+		int blocksX = frame.blocksX;
+		
+		int minBX = minX/BLOCK_SIZE, maxBX = maxX/BLOCK_SIZE;
+		int minBY = minY/BLOCK_SIZE, maxBY = maxY/BLOCK_SIZE;
+		
+		// Reject the whole triangle. Its depth is bounded by the minimum of 
+		// the z/w plane over the pixels of the bounding box, which is 
+		// computed like the depth of the pixels, see below.
+		if(getMinDepth(d, minX, minY, maxX, maxY) >= getMaxDepth(minBX, minBY, maxBX, maxBY))
 		{
-			max= Float.max(max, positions[i][dimension]);
+			tile.statistics.hiZRejectedTriangles++;
+			return;
 		}
 		
-		return max+1 >= colorBuffer.getWidth() ? colorBuffer.getWidth()-1 : (int)max+1;
+		if(triangle.sizeClass == SWTriangle.SMALL)
+		{
+			rasterizeSmallTriangle(triangle, triangleIndex, tile, minX, minY, maxX, maxY);
+			return;
+		}
+		boolean large = triangle.sizeClass == SWTriangle.LARGE;
+		int acceptedBlocks = 0, rejectedBlocks = 0;
+		
+		for(int by=minBY; by<=maxBY; by++)
+		{
+			int y0 = Math.max(by*BLOCK_SIZE, minY);
+			int y1 = Math.min(by*BLOCK_SIZE+BLOCK_SIZE-1, maxY);
+			for(int bx=minBX; bx<=maxBX; bx++)
+			{
+				int x0 = Math.max(bx*BLOCK_SIZE, minX);
+				int x1 = Math.min(bx*BLOCK_SIZE+BLOCK_SIZE-1, maxX);
+				
+				// edge functions at the first pixel of the block
+				long e0Row = f[0]*x0 + f[3]*y0 + f[6];
+				long e1Row = f[1]*x0 + f[4]*y0 + f[7];
+				long e2Row = f[2]*x0 + f[5]*y0 + f[8];
+				
+				// The edge functions are linear, so their minimum and maximum 
+				// over the block are at its corners.
+				boolean inside = false;
+				if(large)
+				{
+					long dx = x1-x0, dy = y1-y0;
+					long min0 = e0Row + Math.min(f[0]*dx, 0) + Math.min(f[3]*dy, 0);
+					long min1 = e1Row + Math.min(f[1]*dx, 0) + Math.min(f[4]*dy, 0);
+					long min2 = e2Row + Math.min(f[2]*dx, 0) + Math.min(f[5]*dy, 0);
+					long max0 = e0Row + Math.max(f[0]*dx, 0) + Math.max(f[3]*dy, 0);
+					long max1 = e1Row + Math.max(f[1]*dx, 0) + Math.max(f[4]*dy, 0);
+					long max2 = e2Row + Math.max(f[2]*dx, 0) + Math.max(f[5]*dy, 0);
+					if((max0 | max1 | max2) < 0)
+					{
+						rejectedBlocks++;
+						continue;
+					}
+					inside = (min0 | min1 | min2) >= 0;
+					if(inside)
+						acceptedBlocks++;
+				}
+				
+				// Reject the block. z/w is a plane, so its minimum over the 
+				// block is at one of the corners. The depth of the pixels is 
+				// computed in the same order, and rounding is monotonic, so 
+				// the minimum is exact.
+				int block = by*blocksX + bx;
+				float blockMax = blockMaxDepth[block];
+				if(getMinDepth(d, x0, y0, x1, y1) >= blockMax)
+				{
+					tile.statistics.hiZRejectedBlocks++;
+					continue;
+				}
+				
+				// the covered pixels of the block, and their max depth
+				long coverage = 0;
+				float coverageMaxDepth = 0;
+				
+				for(int y=y0; y<=y1; y++)
+				{
+					long e0 = e0Row, e1 = e1Row, e2 = e2Row;
+					float zy = d[1]*y;
+					int index = y*width + x0;
+					long bit = 1L << ((y%BLOCK_SIZE)*BLOCK_SIZE + x0%BLOCK_SIZE);
+					for(int x=x0; x<=x1; x++)
+					{
+						// pixel is inside triangle
+						if(inside || (e0 | e1 | e2) >= 0)
+						{
+							// after the depth test the pixel is at most at z
+							float z = d[0]*x + zy + d[2];
+							coverage |= bit;
+							if(z > coverageMaxDepth)
+								coverageMaxDepth = z;
+							if(z<depthBuffer[index])
+							{
+								depthBuffer[index] = z;
+								depthTestPassedFragments++;
+								if(writeVisibility)
+								{
+									visibility[index] = triangleIndex;
+								}
+								else if(shade)
+								{
+									float oneOverW = w[0]*x + w[1]*y + w[2];
+									colorBuffer[index] = shadePixel(x, y, oneOverW, triangle, tile.fragment);
+									shadedPixels++;
+								}
+							}
+						}
+						e0 += f[0];
+						e1 += f[1];
+						e2 += f[2];
+						index++;
+						bit <<= 1;
+					}
+					e0Row += f[3];
+					e1Row += f[4];
+					e2Row += f[5];
+				}
+				
+				if(coverage != 0)
+					frame.addBlockCoverage(block, coverage, coverageMaxDepth);
+			}
+		}
+		tile.statistics.shadedPixels += shadedPixels;
+		tile.statistics.depthTestPassedFragments += depthTestPassedFragments;
+		tile.statistics.acceptedBlocks += acceptedBlocks;
+		tile.statistics.rejectedBlocks += rejectedBlocks;
 	}
 	
-	private void drawPixel(int x, int y, Matrix3f barCoordMatrix, float[][] colors, float[][] uvs, double[][] zBuffer)
+	/**
+	 * Rasterizes a small triangle in the given rectangle of pixels, which is 
+	 * at most {@link #SMALL_TRIANGLE_SIZE} pixels wide and high. The edge 
+	 * functions and the depth are evaluated directly at each pixel, which 
+	 * gives the same result as the block walk of 
+	 * {@link #rasterizeTriangle}. The covered pixels are added to the coarse 
+	 * depth buffer one by one.
+	 */
+	private void rasterizeSmallTriangle(SWTriangle triangle, int triangleIndex, SWTile tile,
+			int minX, int minY, int maxX, int maxY)
 	{
-		// barycentric coordinates matrix transposed for finding a_w, b_w, c_w
-		Matrix3f barCoordMatrixTranspose = new Matrix3f();
-		barCoordMatrixTranspose.transpose(barCoordMatrix);
-		
-		Vector3f pixel = new Vector3f(x,y,1);
-		// apply edge functions
-		barCoordMatrixTranspose.transform(pixel);
-		float alpha_w = pixel.x;
-		float bita_w = pixel.y;
-		float gamma_w = pixel.z;
-		// pixel is inside triangle
-		if(alpha_w>0 && bita_w>0 && gamma_w>0){
-			double oneOverW = getOneOverW(new Vector3f(x,y,1), new Matrix3f(barCoordMatrix));
-			double z = zBuffer[x][y];
-			if(z > oneOverW)
+		long[] f = triangle.fixedEdges;
+		float[] d = triangle.depth;
+		float[] depthBuffer = frame.depth;
+		int shadedPixels = 0, depthTestPassedFragments = 0;
+		for(int y=minY; y<=maxY; y++)
+		{
+			long e0 = f[0]*minX + f[3]*y + f[6];
+			long e1 = f[1]*minX + f[4]*y + f[7];
+			long e2 = f[2]*minX + f[5]*y + f[8];
+			float zy = d[1]*y;
+			for(int x=minX; x<=maxX; x++, e0+=f[0], e1+=f[1], e2+=f[2])
 			{
-				zBuffer[x][y]=oneOverW;
-				int color=0;
-				if(texture!=null)
-					color = getTextureColor(new Vector3f(x,y,1), uvs, new Matrix3f(barCoordMatrix));
-				else
-					color = getColor(new Vector3f(x,y,1), colors, new Matrix3f(barCoordMatrix));
-				colorBuffer.setRGB(x, y, color);
+				if((e0 | e1 | e2) < 0)
+					continue;
+				
+				float z = d[0]*x + zy + d[2];
+				int block = (y/BLOCK_SIZE)*frame.blocksX + x/BLOCK_SIZE;
+				frame.addBlockCoverage(block, 1L << ((y%BLOCK_SIZE)*BLOCK_SIZE + x%BLOCK_SIZE), z);
+				int index = y*frame.width + x;
+				if(z<depthBuffer[index])
+				{
+					depthBuffer[index] = z;
+					depthTestPassedFragments++;
+					if(visibilityBufferMode)
+					{
+						frame.visibility[index] = triangleIndex;
+					}
+					else if(!depthPrepassMode)
+					{
+						float[] w = triangle.oneOverW;
+						frame.color[index] = shadePixel(x, y, w[0]*x + w[1]*y + w[2], triangle, tile.fragment);
+						shadedPixels++;
+					}
+				}
 			}
 		}
+		tile.statistics.shadedPixels += shadedPixels;
+		tile.statistics.depthTestPassedFragments += depthTestPassedFragments;
 	}
 	
-	private int getTextureColor(Vector3f pixel, float[][] textures, Matrix3f barCoord)
+	/**
+	 * Rasterizes the part of the triangle that lies in the given tile with 
+	 * multisampling. The blocks are walked as in {@link #rasterizeTriangle}, 
+	 * but coverage and depth are evaluated at the samples of each pixel. If 
+	 * the triangle passes the depth test at any sample of a pixel, it is 
+	 * shaded once, and the color is stored for the samples that passed. It 
+	 * is shaded at the pixel if all samples are covered, and otherwise at a 
+	 * covered sample, so that the varyings are not extrapolated beyond the 
+	 * triangle.
+	 */
+	private void rasterizeTriangleMultisampled(SWTriangle triangle, SWTile tile)
 	{
-		// u component
-		double uCoord = getColorCoord(pixel, textures, barCoord, 0);
-		// v component
-		double vCoord =  getColorCoord(pixel, textures, barCoord, 1);
+		int minX = Math.max(triangle.minX, tile.minX);
+		int minY = Math.max(triangle.minY, tile.minY);
+		int maxX = Math.min(triangle.maxX, tile.maxX);
+		int maxY = Math.min(triangle.maxY, tile.maxY);
 		
+		long[] f = triangle.fixedEdges;
+		long[] so = triangle.sampleEdges;
+		long m0 = triangle.maxSampleEdges[0], m1 = triangle.maxSampleEdges[1], m2 = triangle.maxSampleEdges[2];
+		float[] w = triangle.oneOverW;
+		float[] d = triangle.depth;
+		float[] sx = sampleX, sy = sampleY;
+		float[] depthBuffer = frame.depth;
+		float[] blockMaxDepth = frame.blockMaxDepth;
+		int[] sampleColor = frame.sampleColor;
+		int samples = frame.samples;
+		int allSamples = (1 << samples) - 1;
+		int shadedPixels = 0, depthTestPassedFragments = 0;
+		int width = frame.width;
+		int blocksX = frame.blocksX;
 		
-		int textHeight = texture.getHeight();
-		int textWidth = texture.getWidth();
-		double u = uCoord*textWidth;
-		double v = vCoord*textHeight;
+		int minBX = minX/BLOCK_SIZE, maxBX = maxX/BLOCK_SIZE;
+		int minBY = minY/BLOCK_SIZE, maxBY = maxY/BLOCK_SIZE;
 		
-//		int color = getNearestNeighbourColor(u, v);
-		int color = getBilinearInterpolationColor(u, v);
+		// the samples are less than half a pixel away from the pixels
+		if(getMinDepth(d, minX-0.5f, minY-0.5f, maxX+0.5f, maxY+0.5f) >= getMaxDepth(minBX, minBY, maxBX, maxBY))
+		{
+			tile.statistics.hiZRejectedTriangles++;
+			return;
+		}
 		
-		return color;
+		for(int by=minBY; by<=maxBY; by++)
+		{
+			int y0 = Math.max(by*BLOCK_SIZE, minY);
+			int y1 = Math.min(by*BLOCK_SIZE+BLOCK_SIZE-1, maxY);
+			for(int bx=minBX; bx<=maxBX; bx++)
+			{
+				int x0 = Math.max(bx*BLOCK_SIZE, minX);
+				int x1 = Math.min(bx*BLOCK_SIZE+BLOCK_SIZE-1, maxX);
+				
+				// the samples are less than half a pixel away from the pixels
+				int block = by*blocksX + bx;
+				float blockMax = blockMaxDepth[block];
+				if(getMinDepth(d, x0-0.5f, y0-0.5f, x1+0.5f, y1+0.5f) >= blockMax)
+				{
+					tile.statistics.hiZRejectedBlocks++;
+					continue;
+				}
+				
+				long e0Row = f[0]*x0 + f[3]*y0 + f[6];
+				long e1Row = f[1]*x0 + f[4]*y0 + f[7];
+				long e2Row = f[2]*x0 + f[5]*y0 + f[8];
+				
+				// the pixels of the block whose samples are all covered
+				long coverage = 0;
+				float coverageMaxDepth = 0;
+				
+				for(int y=y0; y<=y1; y++)
+				{
+					long e0 = e0Row, e1 = e1Row, e2 = e2Row;
+					int index = y*width + x0;
+					long bit = 1L << ((y%BLOCK_SIZE)*BLOCK_SIZE + x0%BLOCK_SIZE);
+					for(int x=x0; x<=x1; x++)
+					{
+						// some sample may be inside the triangle
+						if(((e0 + m0) | (e1 + m1) | (e2 + m2)) >= 0)
+						{
+							int covered = 0, passed = 0;
+							float maxDepth = 0;
+							int first = index*samples;
+							for(int s=0; s<samples; s++)
+							{
+								if(((e0 + so[3*s]) | (e1 + so[3*s+1]) | (e2 + so[3*s+2])) >= 0)
+								{
+									float z = d[0]*(x + sx[s]) + d[1]*(y + sy[s]) + d[2];
+									covered |= 1 << s;
+									if(z > maxDepth)
+										maxDepth = z;
+									if(z < depthBuffer[first+s])
+									{
+										depthBuffer[first+s] = z;
+										passed |= 1 << s;
+									}
+								}
+							}
+							if(covered == allSamples)
+							{
+								coverage |= bit;
+								if(maxDepth > coverageMaxDepth)
+									coverageMaxDepth = maxDepth;
+							}
+							if(passed != 0)
+							{
+								float px = x, py = y;
+								if(covered != allSamples)
+								{
+									int s = Integer.numberOfTrailingZeros(covered);
+									px += sx[s];
+									py += sy[s];
+								}
+								int color = shadePixel(px, py, w[0]*px + w[1]*py + w[2], triangle, tile.fragment);
+								shadedPixels++;
+								depthTestPassedFragments += Integer.bitCount(passed);
+								for(int s=0; s<samples; s++)
+									if((passed & (1 << s)) != 0)
+										sampleColor[first+s] = color;
+							}
+						}
+						e0 += f[0];
+						e1 += f[1];
+						e2 += f[2];
+						index++;
+						bit <<= 1;
+					}
+					e0Row += f[3];
+					e1Row += f[4];
+					e2Row += f[5];
+				}
+				
+				if(coverage != 0)
+					frame.addBlockCoverage(block, coverage, coverageMaxDepth);
+			}
+		}
+		tile.statistics.shadedPixels += shadedPixels;
+		tile.statistics.depthTestPassedFragments += depthTestPassedFragments;
 	}
 	
-	private int getNearestNeighbourColor(double u, double v)
+	/**
+	 * The second pass of the depth prepass mode. Shades the fragments of the 
+	 * triangle in the tile whose depth equals the depth buffer. The depth is 
+	 * computed exactly as in {@link #rasterizeTriangle}, so the front-most 
+	 * fragment of a pixel has the same depth in both passes. The coverage 
+	 * masks of the blocks hold the pixels that are already shaded, see 
+	 * {@link SWFrameState#beginEqualDepthPass}, so if several fragments 
+	 * have the same depth, only the first is shaded, as in the first pass.
+	 */
+	private void shadeFrontFragments(SWTriangle triangle, SWTile tile)
 	{
-		int uInt = (int) u;
-		int vInt = (int) v;
+		int minX = Math.max(triangle.minX, tile.minX);
+		int minY = Math.max(triangle.minY, tile.minY);
+		int maxX = Math.min(triangle.maxX, tile.maxX);
+		int maxY = Math.min(triangle.maxY, tile.maxY);
 		
-		int uNearest = uInt;
-		int vNearest = vInt;
+		long[] f = triangle.fixedEdges;
+		float[] w = triangle.oneOverW;
+		float[] d = triangle.depth;
+		float[] depthBuffer = frame.depth;
+		float[] blockMaxDepth = frame.blockMaxDepth;
+		long[] blockCoverage = frame.blockCoverage;
+		long[] blockFullCoverage = frame.blockFullCoverage;
+		int[] colorBuffer = frame.color;
+		int shadedPixels = 0;
+		int width = frame.width;
+		int blocksX = frame.blocksX;
 		
-		double distance=1;
-		for(int i=0; i<2; i++)
+		for(int by=minY/BLOCK_SIZE; by<=maxY/BLOCK_SIZE; by++)
 		{
-			for(int j=0; j<2; j++)
+			int y0 = Math.max(by*BLOCK_SIZE, minY);
+			int y1 = Math.min(by*BLOCK_SIZE+BLOCK_SIZE-1, maxY);
+			for(int bx=minX/BLOCK_SIZE; bx<=maxX/BLOCK_SIZE; bx++)
 			{
-				double distanceTmp = Math.pow(u-(uInt+i), 2)+Math.pow(v-(vInt+j), 2);
-				if((uInt+i)<texture.getWidth()&&(vInt+j)<texture.getHeight())
+				int x0 = Math.max(bx*BLOCK_SIZE, minX);
+				int x1 = Math.min(bx*BLOCK_SIZE+BLOCK_SIZE-1, maxX);
+				
+				// skip blocks that are completely shaded, and blocks where the 
+				// triangle is behind all pixels
+				int block = by*blocksX + bx;
+				long shaded = blockCoverage[block];
+				if(shaded == blockFullCoverage[block])
+					continue;
+				if(getMinDepth(d, x0, y0, x1, y1) > blockMaxDepth[block])
+				{
+					tile.statistics.hiZRejectedBlocks++;
+					continue;
+				}
+				
+				long e0Row = f[0]*x0 + f[3]*y0 + f[6];
+				long e1Row = f[1]*x0 + f[4]*y0 + f[7];
+				long e2Row = f[2]*x0 + f[5]*y0 + f[8];
+				for(int y=y0; y<=y1; y++)
 				{
-					if(distanceTmp<distance)
+					long e0 = e0Row, e1 = e1Row, e2 = e2Row;
+					float zy = d[1]*y;
+					int index = y*width + x0;
+					long bit = 1L << ((y%BLOCK_SIZE)*BLOCK_SIZE + x0%BLOCK_SIZE);
+					for(int x=x0; x<=x1; x++)
 					{
-						distance=distanceTmp;
-						uNearest = uInt+i;
-						vNearest = vInt+j;
+						if((e0 | e1 | e2) >= 0 && (shaded & bit) == 0 && d[0]*x + zy + d[2] == depthBuffer[index])
+						{
+							shaded |= bit;
+							float oneOverW = w[0]*x + w[1]*y + w[2];
+							colorBuffer[index] = shadePixel(x, y, oneOverW, triangle, tile.fragment);
+							shadedPixels++;
+						}
+						e0 += f[0];
+						e1 += f[1];
+						e2 += f[2];
+						index++;
+						bit <<= 1;
 					}
+					e0Row += f[3];
+					e1Row += f[4];
+					e2Row += f[5];
 				}
+				blockCoverage[block] = shaded;
 			}
 		}
-		
-		int color = texture.getRGB(uNearest, vNearest);
-		return color;
+		tile.statistics.shadedPixels += shadedPixels;
 	}
 	
-	private int getBilinearInterpolationColor(double u, double v)
+	/**
+	 * Increments the color of the pixels in the given rectangle that are 
+	 * covered by the triangle, see {@link #setCoverageCountMode(boolean)}.
+	 */
+	private void countCoverage(SWTriangle triangle, int minX, int minY, int maxX, int maxY)
 	{
-		int uInt = (int) u;
-		int vInt = (int) v;
-		
-		int c=0;
-		
-		if((uInt+1)<texture.getWidth()&&(vInt+1)<texture.getHeight())
+		long[] f = triangle.fixedEdges;
+		int[] colorBuffer = frame.color;
+		for(int y=minY; y<=maxY; y++)
 		{
-			double w_u = u-uInt;
-			double w_u1 = 1-w_u;
-						
-			// for blue, green, red
-			for(int i=0; i<3; i++){
-				
-				int tex00 = (texture.getRGB(uInt, vInt)>> 8*i)&0xFF;
-				int tex01 = (texture.getRGB(uInt+1, vInt)>>8*i)&0xFF;
-				int tex10 = (texture.getRGB(uInt, vInt+1)>>8*i)&0xFF;
-				int tex11 = (texture.getRGB(uInt+1, vInt+1)>>8*i)&0xFF;
-				
-				double c_b = tex00*w_u1+tex01*w_u;
-				double c_t = tex10*w_u1+tex11*w_u;
-				
-				double w_v = (v-vInt);
-				double w_v1 = 1-w_v; 
-				double c1 = c_b*w_v1+c_t*w_v;
-				int cInt =(int) c1;
-				c += (cInt<<8*i);
+			long e0 = f[0]*minX + f[3]*y + f[6];
+			long e1 = f[1]*minX + f[4]*y + f[7];
+			long e2 = f[2]*minX + f[5]*y + f[8];
+			for(int x=minX; x<=maxX; x++)
+			{
+				if((e0 | e1 | e2) >= 0)
+					colorBuffer[y*frame.width + x]++;
+				e0 += f[0];
+				e1 += f[1];
+				e2 += f[2];
 			}
 		}
+	}
+	
+	/**
+	 * @return the minimum of the z/w plane d over a rectangle of pixels. The 
+	 * plane is evaluated at the corners in the same order as at the pixels, 
+	 * and rounding is monotonic, so the minimum is not larger than the depth 
+	 * of any pixel or sample in the rectangle.
+	 */
+	private static float getMinDepth(float[] d, float x0, float y0, float x1, float y1)
+	{
+		return Math.min(d[0]*x0, d[0]*x1) + Math.min(d[1]*y0, d[1]*y1) + d[2];
+	}
+	
+	/**
+	 * @return the maximum of the coarse depth buffer over a range of blocks, 
+	 * the max block coordinates are inclusive.
+	 */
+	private float getMaxDepth(int minBX, int minBY, int maxBX, int maxBY)
+	{
+		float[] blockMaxDepth = frame.blockMaxDepth;
+		float maxDepth = 0;
+		for(int by=minBY; by<=maxBY; by++)
+			for(int bx=minBX; bx<=maxBX; bx++)
+				maxDepth = Math.max(maxDepth, blockMaxDepth[by*frame.blocksX + bx]);
+		return maxDepth;
+	}
+	
+	/**
+	 * Computes the color of the triangle at pixel (x, y), where the 1/w 
+	 * plane of the triangle has the value oneOverW. With multisampling, 
+	 * (x, y) can also be the position of a sample. The fragment is passed 
+	 * to the fragment stage of the shader of the triangle, if it has one.
+	 */
+	private int shadePixel(float x, float y, float oneOverW, SWTriangle triangle, SWFragment fragment)
+	{
+		float w = 1/oneOverW;
+		if(triangle.shaderSlot >= 0)
+		{
+			fragment.set(triangle, x, y, oneOverW, w);
+			return shadeFragment(triangle, fragment);
+		}
+		if(triangle.texture!=null)
+			return getTextureColor(x, y, oneOverW, w, triangle);
 		else
-			c = texture.getRGB(texture.getWidth()-1, texture.getHeight()-1);
-			
-		return  c;
+			return getColor(x, y, w, triangle);
 	}
 	
+	/**
+	 * Calls the fragment stage of the triangle. Every shader slot has a call 
+	 * site of its own, which only sees the shader of the slot, so the JIT 
+	 * compiler can inline the fragment stage into the pixel loop. The shaders 
+	 * that do not get a slot of their own share the last one.
+	 */
+	private static int shadeFragment(SWTriangle triangle, SWFragment fragment)
+	{
+		SWFragmentStage stage = triangle.fragmentStage;
+		switch(triangle.shaderSlot)
+		{
+			case 0:
+				return stage.shade(fragment);
+			case 1:
+				return stage.shade(fragment);
+			case 2:
+				return stage.shade(fragment);
+			default:
+				return stage.shade(fragment);
+		}
+	}
 	
-		
-	private int getColor(Vector3f pixel, float[][] colors, Matrix3f barCoord)
+	/**
+	 * @return the call site slot of the shader, see {@link #shadeFragment}. 
+	 * Slots are given to the shaders in the order they are first used.
+	 */
+	private int getShaderSlot(SWShader shader)
 	{
-		// red component
-		int redColor = (int) (getColorCoord(pixel, colors, barCoord, 0)*(Math.pow(2, 8)-1))<<16;
-		// green component
-		int greenColor = (int) (getColorCoord(pixel, colors, barCoord, 1)*(Math.pow(2, 8)-1))<<8;
-		// blue component
-		int blueColor = (int) (getColorCoord(pixel, colors, barCoord, 2)*(Math.pow(2,8)-1));
-		
-		return redColor+greenColor+blueColor;
+		for(int i=0; i<SHADER_SLOTS; i++)
+		{
+			if(shaderSlots[i] == shader)
+				return i;
+			if(shaderSlots[i] == null)
+			{
+				shaderSlots[i] = shader;
+				return i;
+			}
+		}
+		return SHADER_SLOTS-1;
 	}
 	
-	private double getColorCoord(Vector3f pixel, float[][] colors, Matrix3f barCoord, int coord)
-	{		
-		float u0 = colors[0][coord];
-		float u1 = colors[1][coord];
-		float u2 = colors[2][coord];
-		
-		Vector3f barColorCoord = new Vector3f(u0, u1, u2);
-		barCoord.transform(barColorCoord);
-		
-		float u = barColorCoord.dot(pixel);
-		double oneOverW = getOneOverW(pixel, barCoord);
-		
-		double color = u/oneOverW;
-		if(color<0 || color>1)
-			;//System.out.println("color: "+color);
-			
-		return color;
+	/**
+	 * Interpolates varying i of the triangle perspective correctly at pixel 
+	 * (x, y), where w is the interpolated w.
+	 */
+	static float getVarying(SWTriangle triangle, int i, float x, float y, float w)
+	{
+		float[] planes = triangle.varyingPlanes;
+		return (planes[3*i]*x + planes[3*i+1]*y + planes[3*i+2])*w;
 	}
 	
-	private double getOneOverW(Vector3f pixel, Matrix3f barCoord)
+	/**
+	 * Samples the texture of the triangle trilinearly. The level of detail 
+	 * is computed from the screen space derivatives of the texture 
+	 * coordinates. With U = u/w and W = 1/w, the derivative of u = U/W is 
+	 * du/dx = (dU/dx - u*dW/dx)/W, and the same for y and v.
+	 */
+	static int getTextureColor(float x, float y, float oneOverW, float w, SWTriangle triangle)
 	{
-		Vector3d pixel2 = new Vector3d(pixel);
-		Vector3d constantFunction = new Vector3d(1,1,1);
-		Matrix3d barCoord2 = new Matrix3d(barCoord);
-		barCoord2.transform(constantFunction);
+		SWTexture texture = triangle.texture;
+		float u = getVarying(triangle, SWTriangle.TEXCOORD, x, y, w)*texture.width;
+		float v = getVarying(triangle, SWTriangle.TEXCOORD+1, x, y, w)*texture.height;
 		
-		return constantFunction.dot(pixel2);
+		float[] planes = triangle.varyingPlanes;
+		int i = 3*SWTriangle.TEXCOORD;
+		float wx = triangle.oneOverW[0], wy = triangle.oneOverW[1];
+		float dudx = planes[i]*texture.width - u*wx, dudy = planes[i+1]*texture.width - u*wy;
+		float dvdx = planes[i+3]*texture.height - v*wx, dvdy = planes[i+4]*texture.height - v*wy;
+		// the derivatives above are multiplied by 1/w
+		float rhoX = dudx*dudx + dvdx*dvdx, rhoY = dudy*dudy + dvdy*dvdy;
+		float lod = 0.5f*log2(rhoX > rhoY ? rhoX : rhoY) - log2(oneOverW);
+
+//		return texture.getNearestNeighbourColor(u, v);
+		return texture.getTrilinearInterpolationColor(u, v, lod);
+	}
+	
+	/**
+	 * A fast approximation of the binary logarithm, linear between powers 
+	 * of two. It is exact at powers of two, which is good enough for the 
+	 * level of detail.
+	 */
+	private static float log2(float x)
+	{
+		int bits = Float.floatToRawIntBits(x);
+		int exponent = ((bits>>23)&0xFF) - 127;
+		return exponent + (bits&0x7FFFFF)*(1f/(1<<23));
+	}
+	
+	private int getColor(float x, float y, float w, SWTriangle triangle)
+	{
+		int red = (int)(getVarying(triangle, SWTriangle.COLOR, x, y, w)*255);
+		int green = (int)(getVarying(triangle, SWTriangle.COLOR+1, x, y, w)*255);
+		int blue = (int)(getVarying(triangle, SWTriangle.COLOR+2, x, y, w)*255);
+		return (red<<16) + (green<<8) + blue;
 	}
 	
 	/**
-	 * Does nothing. We will not implement shaders for the software renderer.
+	 * @return a new {@link SWShader} without stages, i.e., with the 
+	 * built-in shading. Set its stages to make it do something else.
 	 */
-	public Shader makeShader()	
+	public Shader makeShader()
 	{
 		return new SWShader();
 	}
 	
 	/**
-	 * Does nothing. We will not implement shaders for the software renderer.
+	 * Use the {@link SWShader} for the shapes whose material has no shader 
+	 * of its own.
 	 */
 	public void useShader(Shader s)
 	{
+		activeShader = (SWShader)s;
+		invalid = true;
 	}
 	
 	/**
-	 * Does nothing. We will not implement shaders for the software renderer.
+	 * Use the built-in shading for the shapes whose material has no shader 
+	 * of its own.
 	 */
 	public void useDefaultShader()
 	{
+		activeShader = null;
+		invalid = true;
 	}
-
+	
 	/**
 	 * Does nothing. We will not implement textures for the software renderer.
 	 */
@@ -507,23 +1723,39 @@ public class SWRenderContext implements RenderContext {
 	
 	public VertexData makeVertexData(int n)
 	{
-		return new SWVertexData(n);		
+		return new SWVertexData(n);
 	}
 	
 	private void setMaterial(Material m)
 	{
 		material=m;
-		if(material!=null)
-			texture=material.swTexture.texture;
+		if(material!=null && material.swTexture!=null && material.swTexture.texels!=null)
+			texture=material.swTexture;
 		else
 			texture=null;
-			
+		
+		shader = material!=null && material.shader instanceof SWShader ? (SWShader)material.shader : activeShader;
+		if(shader!=null && shader.getFragmentStage()==null)
+			shader = null;
+		
+		if(shader!=null)
+		{
+			varyingMask = shader.getVaryingMask();
+			if(texture==null)
+				varyingMask &= ~SWTriangle.getVaryingMask(SWTriangle.TEXCOORD, 2);
+		}
+		else if(texture!=null)
+			varyingMask = SWTriangle.getVaryingMask(SWTriangle.TEXCOORD, 2);
+		else
+			varyingMask = SWTriangle.getVaryingMask(SWTriangle.COLOR, 3);
 	}
 	
-	private void clear()
+	/**
+	 * @return the current material, or a default material for shapes 
+	 * without one.
+	 */
+	private Material getMaterial()
 	{
-		int width = colorBuffer.getWidth();
-		int height = colorBuffer.getHeight();
-		setViewportSize(width, height);
+		return material!=null ? material : defaultMaterial;
 	}
 }
@@ -1,7 +1,5 @@
 package jrtr.swrenderer;
 
-import javax.swing.JPanel;
-
 import jrtr.RenderContext;
 import jrtr.RenderPanel;
 import jrtr.glrenderer.GLRenderPanel;
@@ -18,7 +16,7 @@ import jrtr.glrenderer.GLRenderPanel;
  * {@link GLRenderPanel}.
  */
 public abstract class SWRenderPanel implements RenderPanel {
-
+	
 	private SWJPanel canvas;
 	private SWRenderContext renderContext;
 	
@@ -34,13 +32,14 @@ public abstract class SWRenderPanel implements RenderPanel {
 	/**
 	 * Return the AWT component that contains the rendered image. The user application
 	 * needs to call this. The returned component is usually added to an application 
-	 * window.
+	 * window. The {@link SWJPanel} can also be switched to rendering on a
+	 * thread of its own, see {@link SWJPanel#setAsynchronous(boolean)}.
 	 */
-	public JPanel getCanvas() 
+	public SWJPanel getCanvas() 
 	{
 		return canvas;
 	}
-
+	
 	/**
 	 * This needs to be implemented by the derived class.
 	 */
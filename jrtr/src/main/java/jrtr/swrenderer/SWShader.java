@@ -3,18 +3,179 @@ package jrtr.swrenderer;
 import jrtr.Shader;
 
 /**
- * Manages shaders for the software renderer. Not implemented here.
+ * A shader of the software renderer. It consists of a vertex stage, which
+ * computes the varyings of the vertices, and a fragment stage, which
+ * computes the colors of the pixels from the interpolated varyings. A
+ * shader is used for the shapes whose {@link jrtr.Material} references it,
+ * or for all shapes after {@link SWRenderContext#useShader(Shader)}. A
+ * shader without a fragment stage, as returned by
+ * {@link SWRenderContext#makeShader()}, selects the built-in shading with
+ * the vertex colors or the texture.
+ * <p>
+ * {@link #makeGouraudShader()} and {@link #makePhongShader()} make shaders
+ * that light the shapes with the lights of the scene manager, per vertex
+ * or per pixel. Shaders cannot be loaded from files.
  */
 public class SWShader implements Shader {
-
+	
+	/**
+	 * The indices of the varyings. The vertex colors, the normals and the
+	 * positions in camera coordinates have three components, the texture
+	 * coordinates two.
+	 */
+	public static final int COLOR = SWTriangle.COLOR;
+	public static final int NORMAL = SWTriangle.NORMAL;
+	public static final int TEXCOORD = SWTriangle.TEXCOORD;
+	public static final int VIEW_POSITION = SWTriangle.VIEW_POSITION;
+	public static final int VARYINGS = SWClipper.VARYINGS;
+	
+	private SWVertexStage vertexStage = SWShader::passVaryings;
+	private SWFragmentStage fragmentStage;
+	private int varyingMask = getVaryingMask(0, VARYINGS);
+	
+	public SWShader()
+	{
+	}
+	
+	/**
+	 * @param varyingMask the varyings that the fragment stage reads, see
+	 * {@link #setVaryingMask(int)}
+	 */
+	public SWShader(SWVertexStage vertexStage, SWFragmentStage fragmentStage, int varyingMask)
+	{
+		this.vertexStage = vertexStage;
+		this.fragmentStage = fragmentStage;
+		this.varyingMask = varyingMask;
+	}
+	
+	/**
+	 * @return the bit mask of n varyings starting at varying i.
+	 */
+	public static int getVaryingMask(int i, int n)
+	{
+		return SWTriangle.getVaryingMask(i, n);
+	}
+	
+	/**
+	 * Passes the vertex colors and the texture coordinates on, and
+	 * transforms the normal and the position to camera coordinates. This is
+	 * the vertex stage of new shaders.
+	 */
+	public static void passVaryings(SWVertex vertex, float[] varyings)
+	{
+		System.arraycopy(vertex.color, 0, varyings, COLOR, 3);
+		System.arraycopy(vertex.texcoord, 0, varyings, TEXCOORD, 2);
+		vertex.getViewNormal(varyings, NORMAL);
+		vertex.getViewPosition(varyings, VIEW_POSITION);
+	}
+	
+	/**
+	 * @return a shader that evaluates the Phong lighting model per vertex
+	 * and interpolates the color, which is modulated by the texture.
+	 */
+	public static SWShader makeGouraudShader()
+	{
+		return new SWShader((vertex, varyings) -> {
+			passVaryings(vertex, varyings);
+			float[] rgb = vertex.lighting;
+			vertex.getLights().shade(vertex.getMaterial(), varyings[NORMAL], varyings[NORMAL+1], varyings[NORMAL+2],
+					varyings[VIEW_POSITION], varyings[VIEW_POSITION+1], varyings[VIEW_POSITION+2], rgb);
+			for(int k=0; k<3; k++)
+				varyings[COLOR+k] = rgb[k] + rgb[3+k];
+		}, fragment -> {
+			float red = fragment.getVarying(COLOR);
+			float green = fragment.getVarying(COLOR+1);
+			float blue = fragment.getVarying(COLOR+2);
+			if(fragment.hasTexture())
+			{
+				int texel = fragment.sampleTexture();
+				red *= ((texel>>16)&0xFF)/255f;
+				green *= ((texel>>8)&0xFF)/255f;
+				blue *= (texel&0xFF)/255f;
+			}
+			return SWFragment.toRGB(red, green, blue);
+		}, getVaryingMask(COLOR, 3) | getVaryingMask(TEXCOORD, 2));
+	}
+	
+	/**
+	 * @return a shader that interpolates the normals and evaluates the
+	 * Phong lighting model per pixel. The texture modulates the diffuse
+	 * light.
+	 */
+	public static SWShader makePhongShader()
+	{
+		return new SWShader(SWShader::passVaryings, fragment -> {
+			float nx = fragment.getVarying(NORMAL);
+			float ny = fragment.getVarying(NORMAL+1);
+			float nz = fragment.getVarying(NORMAL+2);
+			float length = (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+			if(length > 0)
+			{
+				nx /= length;
+				ny /= length;
+				nz /= length;
+			}
+			float[] rgb = fragment.lighting;
+			fragment.getLights().shade(fragment.getMaterial(), nx, ny, nz, fragment.getVarying(VIEW_POSITION),
+					fragment.getVarying(VIEW_POSITION+1), fragment.getVarying(VIEW_POSITION+2), rgb);
+			if(fragment.hasTexture())
+			{
+				int texel = fragment.sampleTexture();
+				rgb[0] *= ((texel>>16)&0xFF)/255f;
+				rgb[1] *= ((texel>>8)&0xFF)/255f;
+				rgb[2] *= (texel&0xFF)/255f;
+			}
+			return SWFragment.toRGB(rgb[0] + rgb[3], rgb[1] + rgb[4], rgb[2] + rgb[5]);
+		}, getVaryingMask(NORMAL, 3) | getVaryingMask(VIEW_POSITION, 3) | getVaryingMask(TEXCOORD, 2));
+	}
+	
+	public SWVertexStage getVertexStage()
+	{
+		return vertexStage;
+	}
+	
+	public void setVertexStage(SWVertexStage vertexStage)
+	{
+		this.vertexStage = vertexStage;
+	}
+	
+	public SWFragmentStage getFragmentStage()
+	{
+		return fragmentStage;
+	}
+	
+	public void setFragmentStage(SWFragmentStage fragmentStage)
+	{
+		this.fragmentStage = fragmentStage;
+	}
+	
+	public int getVaryingMask()
+	{
+		return varyingMask;
+	}
+	
+	/**
+	 * Set the varyings that the fragment stage reads, one bit per varying,
+	 * see {@link #getVaryingMask(int, int)}. Only these are interpolated.
+	 */
+	public void setVaryingMask(int varyingMask)
+	{
+		this.varyingMask = varyingMask;
+	}
+	
 	public void disable() {
 	}
-
+	
+	/**
+	 * Does nothing. The stages of software shaders are Java code, see
+	 * {@link #setVertexStage(SWVertexStage)} and
+	 * {@link #setFragmentStage(SWFragmentStage)}.
+	 */
 	public void load(String vertexFileName, String fragmentFileName)
 			throws Exception {
 	}
-
+	
 	public void use() {
 	}
 
-}
\ No newline at end of file
+}
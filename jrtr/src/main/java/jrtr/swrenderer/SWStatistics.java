@@ -0,0 +1,241 @@
+package jrtr.swrenderer;
+
+/**
+ * Counters of the {@link SWRenderContext} for the last rendered frame. The 
+ * counters of the rasterizer are collected per screen tile while the tiles 
+ * are rasterized in parallel, and summed up at the end of the frame.
+ */
+public class SWStatistics {
+	
+	long vertexReferences;
+	long transformedVertices;
+	long backFacingTriangles;
+	long zeroAreaTriangles;
+	long outsideFrustumTriangles;
+	long hiZRejectedTriangles;
+	long hiZRejectedBlocks;
+	long shadedPixels;
+	long depthTestPassedFragments;
+	long smallTriangles;
+	long mediumTriangles;
+	long largeTriangles;
+	long acceptedBlocks;
+	long rejectedBlocks;
+	long dirtyTiles;
+	long skippedRenderItems;
+	
+	/**
+	 * @return the number of vertex indices of all drawn meshes, i.e., how 
+	 * often a vertex would have been transformed without the vertex buffer.
+	 */
+	public long getVertexReferences()
+	{
+		return vertexReferences;
+	}
+	
+	/**
+	 * @return the number of vertices that were transformed to clip space.
+	 */
+	public long getTransformedVertices()
+	{
+		return transformedVertices;
+	}
+	
+	/**
+	 * @return the fraction of the vertex references that did not need a 
+	 * transformation, because the vertex was already transformed.
+	 */
+	public double getVertexCacheHitRatio()
+	{
+		return vertexReferences == 0 ? 0 : 1 - (double)transformedVertices/vertexReferences;
+	}
+	
+	/**
+	 * @return the number of triangles that were rejected because they face 
+	 * away from the camera.
+	 */
+	public long getBackFacingTriangles()
+	{
+		return backFacingTriangles;
+	}
+	
+	/**
+	 * @return the number of triangles that were rejected because they have 
+	 * no area on the screen.
+	 */
+	public long getZeroAreaTriangles()
+	{
+		return zeroAreaTriangles;
+	}
+	
+	/**
+	 * @return the number of triangles that were rejected because they are 
+	 * outside of the viewing frustum.
+	 */
+	public long getOutsideFrustumTriangles()
+	{
+		return outsideFrustumTriangles;
+	}
+	
+	/**
+	 * @return how often a triangle was rejected for a whole screen tile, 
+	 * because it lies completely behind the coarse depth of all 8x8 pixel 
+	 * blocks it overlaps in the tile.
+	 */
+	public long getHiZRejectedTriangles()
+	{
+		return hiZRejectedTriangles;
+	}
+	
+	/**
+	 * @return how often an 8x8 pixel block of a triangle was rejected, 
+	 * because it lies completely behind the coarse depth of the block.
+	 */
+	public long getHiZRejectedBlocks()
+	{
+		return hiZRejectedBlocks;
+	}
+	
+	/**
+	 * @return how often the color of a pixel was computed. Without the 
+	 * visibility buffer mode, this includes the pixels that are overdrawn 
+	 * later in the frame.
+	 */
+	public long getShadedPixels()
+	{
+		return shadedPixels;
+	}
+	
+	/**
+	 * @return how many fragments passed the depth test when they were 
+	 * rasterized. Without the visibility buffer and the depth prepass 
+	 * mode, all of them are shaded. With multisampling, this counts the 
+	 * samples that passed the depth test.
+	 */
+	public long getDepthTestPassedFragments()
+	{
+		return depthTestPassedFragments;
+	}
+	
+	/**
+	 * @return the number of triangles that were rasterized as small 
+	 * triangles, pixel by pixel.
+	 */
+	public long getSmallTriangles()
+	{
+		return smallTriangles;
+	}
+	
+	/**
+	 * @return the number of triangles that were rasterized block by block, 
+	 * testing the edge functions at every pixel.
+	 */
+	public long getMediumTriangles()
+	{
+		return mediumTriangles;
+	}
+	
+	/**
+	 * @return the number of triangles that were rasterized as large 
+	 * triangles, testing the edge functions at the corners of the blocks 
+	 * first.
+	 */
+	public long getLargeTriangles()
+	{
+		return largeTriangles;
+	}
+	
+	/**
+	 * @return the number of blocks of large triangles that were completely 
+	 * inside the triangle, so their pixels needed no edge tests.
+	 */
+	public long getAcceptedBlocks()
+	{
+		return acceptedBlocks;
+	}
+	
+	/**
+	 * @return the number of blocks of large triangles that were completely 
+	 * outside of an edge of the triangle.
+	 */
+	public long getRejectedBlocks()
+	{
+		return rejectedBlocks;
+	}
+	
+	/**
+	 * @return the number of screen tiles that were rasterized. In the 
+	 * incremental rendering, these are the tiles that changed since the 
+	 * last frame, otherwise all tiles.
+	 */
+	public long getDirtyTiles()
+	{
+		return dirtyTiles;
+	}
+	
+	/**
+	 * @return the number of render items that were not drawn in the 
+	 * incremental rendering, because they do not overlap a changed tile.
+	 */
+	public long getSkippedRenderItems()
+	{
+		return skippedRenderItems;
+	}
+	
+	void clear()
+	{
+		vertexReferences = 0;
+		transformedVertices = 0;
+		backFacingTriangles = 0;
+		zeroAreaTriangles = 0;
+		outsideFrustumTriangles = 0;
+		hiZRejectedTriangles = 0;
+		hiZRejectedBlocks = 0;
+		shadedPixels = 0;
+		depthTestPassedFragments = 0;
+		smallTriangles = 0;
+		mediumTriangles = 0;
+		largeTriangles = 0;
+		acceptedBlocks = 0;
+		rejectedBlocks = 0;
+		dirtyTiles = 0;
+		skippedRenderItems = 0;
+	}
+	
+	void add(SWStatistics s)
+	{
+		vertexReferences += s.vertexReferences;
+		transformedVertices += s.transformedVertices;
+		backFacingTriangles += s.backFacingTriangles;
+		zeroAreaTriangles += s.zeroAreaTriangles;
+		outsideFrustumTriangles += s.outsideFrustumTriangles;
+		hiZRejectedTriangles += s.hiZRejectedTriangles;
+		hiZRejectedBlocks += s.hiZRejectedBlocks;
+		shadedPixels += s.shadedPixels;
+		depthTestPassedFragments += s.depthTestPassedFragments;
+		smallTriangles += s.smallTriangles;
+		mediumTriangles += s.mediumTriangles;
+		largeTriangles += s.largeTriangles;
+		acceptedBlocks += s.acceptedBlocks;
+		rejectedBlocks += s.rejectedBlocks;
+		dirtyTiles += s.dirtyTiles;
+		skippedRenderItems += s.skippedRenderItems;
+	}
+	
+	public String toString()
+	{
+		return String.format("Vertex cache hit ratio: %.2f", getVertexCacheHitRatio())
+				+ ", back facing: " + backFacingTriangles
+				+ ", zero area: " + zeroAreaTriangles
+				+ ", outside frustum: " + outsideFrustumTriangles
+				+ ", Hi-Z rejected triangles: " + hiZRejectedTriangles
+				+ ", Hi-Z rejected blocks: " + hiZRejectedBlocks
+				+ ", shaded pixels: " + shadedPixels
+				+ ", fragments passing the depth test: " + depthTestPassedFragments
+				+ ", small/medium/large triangles: " + smallTriangles + "/" + mediumTriangles + "/" + largeTriangles
+				+ ", accepted blocks: " + acceptedBlocks
+				+ ", rejected blocks: " + rejectedBlocks
+				+ ", dirty tiles: " + dirtyTiles
+				+ ", skipped render items: " + skippedRenderItems;
+	}
+}
@@ -3,20 +3,309 @@ package jrtr.swrenderer;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
 
 import jrtr.Texture;
 
 /**
- * Manages textures for the software renderer. Not implemented here.
+ * Manages textures for the software renderer. When a texture is loaded, 
+ * the image is converted once to packed RGB ints (0xRRGGBB), so the 
+ * rasterizer can sample it with plain array accesses instead of going 
+ * through the {@link java.awt.image.ColorModel} of the image for every 
+ * texel.
+ * <p>
+ * Loading also builds a mip pyramid. Level 0 is the image itself, and each 
+ * further level halves the size of the previous one until it is 1x1 
+ * texel. All levels together are at most 4/3 of the size of level 0, plus 
+ * the padding of the tiled layout.
+ * <p>
+ * The texels of a level are stored row by row, or optionally in blocks of 
+ * 4x4 texels (see {@link #setTiled(boolean)}). In the tiled layout, the 
+ * texels the bilinear filter reads are mostly in one or two cache lines 
+ * independent of the direction in which the rasterizer walks the texture.
  */
 public class SWTexture implements Texture {
 	public BufferedImage texture;
 	
+	/**
+	 * The texels of level 0, see {@link #levels}.
+	 */
+	int[] texels;
+	int width, height;
+	
+	/**
+	 * The texels of all mip levels, with level 0 being {@link #texels}. The 
+	 * size of a level is levelWidths x levelHeights. The texel (x, y) of a 
+	 * level is at index getRowOffset(y) + getColumnOffset(x).
+	 */
+	private int[][] levels;
+	private int[] levelWidths, levelHeights;
+	
+	/**
+	 * The factors from level 0 texel coordinates to the texel coordinates of 
+	 * each level, for u and v.
+	 */
+	private float[] levelScales;
+	
+	/**
+	 * Whether the texels are stored in blocks of 4x4 texels. The blocks are 
+	 * stored row by row, and the texels in a block as well. Levels are 
+	 * padded to a multiple of 4 texels in both directions.
+	 */
+	private boolean tiled;
+	
+	/**
+	 * The offset between two rows of texels in the row by row layout, or 
+	 * between two rows of blocks in the tiled layout, for each level.
+	 */
+	private int[] levelStrides;
+	
 	public void load(String fileName) throws IOException {
 		File f = new File(fileName);
 		texture = ImageIO.read(f);
+		if(texture == null)
+			throw new IOException("Could not read image " + fileName);
+		
+		width = texture.getWidth();
+		height = texture.getHeight();
+		texels = texture.getRGB(0, 0, width, height, null, 0, width);
+		for(int i=0; i<texels.length; i++)
+			texels[i] &= 0xFFFFFF;
+		
+		buildMipLevels();
+		if(tiled)
+			changeLayout(true);
+	}
+	
+	/**
+	 * Store the texels in blocks of 4x4 texels instead of row by row. This 
+	 * can be changed before or after the texture is loaded.
+	 */
+	public void setTiled(boolean tiled)
+	{
+		if(tiled == this.tiled)
+			return;
+		if(levels != null)
+			changeLayout(tiled);
+		else
+			this.tiled = tiled;
+	}
+	
+	public boolean isTiled()
+	{
+		return tiled;
+	}
+	
+	/**
+	 * Build the mip pyramid. Every level is filtered directly from level 0, 
+	 * so the levels do not depend on each other and are built in parallel.
+	 */
+	private void buildMipLevels()
+	{
+		int n = 1;
+		for(int w=width, h=height; w>1 || h>1; w=Math.max(w/2, 1), h=Math.max(h/2, 1))
+			n++;
+		
+		levels = new int[n][];
+		levelWidths = new int[n];
+		levelHeights = new int[n];
+		levels[0] = texels;
+		levelWidths[0] = width;
+		levelHeights[0] = height;
+		for(int level=1; level<n; level++)
+		{
+			levelWidths[level] = Math.max(levelWidths[level-1]/2, 1);
+			levelHeights[level] = Math.max(levelHeights[level-1]/2, 1);
+		}
+		levelScales = new float[2*n];
+		levelStrides = new int[n];
+		for(int level=0; level<n; level++)
+		{
+			levelScales[2*level] = (float)levelWidths[level]/width;
+			levelScales[2*level+1] = (float)levelHeights[level]/height;
+			levelStrides[level] = levelWidths[level];
+		}
+		
+		IntStream.range(1, n).parallel().forEach(level -> levels[level] = filterLevel(level));
+	}
+	
+	/**
+	 * Computes a mip level by averaging the box of level 0 texels that 
+	 * each texel of the level covers. Level 0 needs to be row by row.
+	 */
+	private int[] filterLevel(int level)
+	{
+		int w = levelWidths[level], h = levelHeights[level];
+		int[] result = new int[w*h];
+		for(int y=0; y<h; y++)
+		{
+			int y0 = y*height/h, y1 = (y+1)*height/h;
+			for(int x=0; x<w; x++)
+			{
+				int x0 = x*width/w, x1 = (x+1)*width/w;
+				long r = 0, g = 0, b = 0;
+				for(int ty=y0; ty<y1; ty++)
+				{
+					for(int tx=x0; tx<x1; tx++)
+					{
+						int c = texels[ty*width + tx];
+						r += (c>>16)&0xFF;
+						g += (c>>8)&0xFF;
+						b += c&0xFF;
+					}
+				}
+				int count = (x1-x0)*(y1-y0);
+				result[y*w + x] = (int)(r/count)<<16 | (int)(g/count)<<8 | (int)(b/count);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Converts all levels to the tiled or to the row by row layout.
+	 */
+	private void changeLayout(boolean tiled)
+	{
+		for(int level=0; level<levels.length; level++)
+		{
+			int w = levelWidths[level], h = levelHeights[level];
+			int[] source = levels[level];
+			int[] target = new int[tiled ? ((w+3)&~3)*((h+3)&~3) : w*h];
+			int sourceStride = levelStrides[level];
+			int targetStride = tiled ? 4*((w+3)&~3) : w;
+			for(int y=0; y<h; y++)
+			{
+				for(int x=0; x<w; x++)
+				{
+					target[getRowOffset(tiled, targetStride, y) + getColumnOffset(tiled, x)]
+							= source[getRowOffset(!tiled, sourceStride, y) + getColumnOffset(!tiled, x)];
+				}
+			}
+			levels[level] = target;
+			levelStrides[level] = targetStride;
+		}
+		texels = levels[0];
+		this.tiled = tiled;
+	}
+	
+	/**
+	 * @return the offset of texel column x from the start of a row.
+	 */
+	private static int getColumnOffset(boolean tiled, int x)
+	{
+		return tiled ? (x>>2)<<4 | (x&3) : x;
+	}
+	
+	/**
+	 * @return the offset of texel row y from the start of a level with the 
+	 * given stride.
+	 */
+	private static int getRowOffset(boolean tiled, int stride, int y)
+	{
+		return tiled ? (y>>2)*stride + ((y&3)<<2) : y*stride;
+	}
+	
+	/**
+	 * @return the texel at (x, y) of level 0, coordinates are clamped to 
+	 * the texture.
+	 */
+	private int getTexel(int x, int y)
+	{
+		x = clamp(x, width);
+		y = clamp(y, height);
+		return texels[getRowOffset(tiled, levelStrides[0], y) + getColumnOffset(tiled, x)];
+	}
+	
+	/**
+	 * Sample the texel nearest to the texel coordinates (u, v).
+	 */
+	int getNearestNeighbourColor(float u, float v)
+	{
+		return getTexel((int)Math.floor(u+0.5f), (int)Math.floor(v+0.5f));
+	}
+	
+	/**
+	 * Interpolate bilinearly between the four texels around the texel 
+	 * coordinates (u, v).
+	 */
+	int getBilinearInterpolationColor(float u, float v)
+	{
+		return getBilinearInterpolationColor(0, u, v);
+	}
+	
+	/**
+	 * Interpolate trilinearly, i.e., bilinearly in the two mip levels 
+	 * around the level of detail, and linearly between the two levels.
+	 * 
+	 * @param u the texel coordinate in level 0
+	 * @param v the texel coordinate in level 0
+	 * @param lod the level of detail, the binary logarithm of the number of 
+	 * level 0 texels per pixel. Textures are magnified for values <= 0.
+	 */
+	int getTrilinearInterpolationColor(float u, float v, float lod)
+	{
+		if(!(lod > 0))
+			return getBilinearInterpolationColor(0, u, v);
+		
+		int level = (int)lod;
+		if(level >= levels.length-1)
+			return getBilinearInterpolationColor(levels.length-1, u, v);
+		
+		int c0 = getBilinearInterpolationColor(level, u, v);
+		int c1 = getBilinearInterpolationColor(level+1, u, v);
+		return lerp(c0, c1, (int)((lod-level)*256));
+	}
+	
+	/**
+	 * Interpolate bilinearly in a mip level, (u, v) are texel coordinates 
+	 * in level 0.
+	 */
+	private int getBilinearInterpolationColor(int level, float u, float v)
+	{
+		u *= levelScales[2*level];
+		v *= levelScales[2*level+1];
+		int uInt = floor(u);
+		int vInt = floor(v);
+		int w_u = (int)((u-uInt)*256);
+		int w_v = (int)((v-vInt)*256);
+		
+		// clamp the texel coordinates to the level
+		int w = levelWidths[level], h = levelHeights[level];
+		int x0 = getColumnOffset(tiled, clamp(uInt, w)), x1 = getColumnOffset(tiled, clamp(uInt+1, w));
+		int stride = levelStrides[level];
+		int row0 = getRowOffset(tiled, stride, clamp(vInt, h)), row1 = getRowOffset(tiled, stride, clamp(vInt+1, h));
+		
+		int[] t = levels[level];
+		int tex00 = t[row0 + x0];
+		int tex01 = t[row0 + x1];
+		int tex10 = t[row1 + x0];
+		int tex11 = t[row1 + x1];
+		
+		return lerp(lerp(tex00, tex01, w_u), lerp(tex10, tex11, w_u), w_v);
+	}
+	
+	private static int floor(float x)
+	{
+		int i = (int)x;
+		return x < i ? i-1 : i;
+	}
+	
+	private static int clamp(int x, int size)
+	{
+		return x < 0 ? 0 : (x >= size ? size-1 : x);
+	}
+	
+	/**
+	 * Interpolates linearly between two packed RGB colors with a weight 
+	 * w in [0, 256]. Red and blue are interpolated together, they are far 
+	 * enough apart that the products do not overlap.
+	 */
+	private static int lerp(int c0, int c1, int w)
+	{
+		int rb = ((c0&0xFF00FF)*(256-w) + (c1&0xFF00FF)*w)>>>8;
+		int g = ((c0&0xFF00)*(256-w) + (c1&0xFF00)*w)>>>8;
+		return (rb&0xFF00FF) | (g&0xFF00);
 	}
-
 }
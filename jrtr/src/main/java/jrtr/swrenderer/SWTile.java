@@ -0,0 +1,75 @@
+package jrtr.swrenderer;
+
+import java.util.Arrays;
+
+/**
+ * A rectangular screen tile of the {@link SWRenderContext}. Triangles are
+ * binned into the tiles they overlap, and each tile is rasterized
+ * independently. A tile only writes to its own pixels of the color and 
+ * depth buffers of the {@link SWFrameState}.
+ */
+class SWTile {
+	
+	/**
+	 * Pixel bounds of the tile, the max coordinates are inclusive.
+	 */
+	final int minX, minY, maxX, maxY;
+	
+	/**
+	 * Indices of the triangles overlapping this tile, in submission order.
+	 */
+	private int[] triangles = new int[64];
+	private int nTriangles;
+	
+	/**
+	 * Counters of this tile for the current frame.
+	 */
+	final SWStatistics statistics = new SWStatistics();
+	
+	/**
+	 * The fragment passed to the fragment stages of the shaders.
+	 */
+	final SWFragment fragment;
+	
+	/**
+	 * False if the tile is unchanged since the last frame in the incremental 
+	 * rendering of the {@link SWRenderContext}, then it is not rasterized.
+	 */
+	boolean dirty = true;
+	
+	SWTile(int minX, int minY, int maxX, int maxY, SWLights lights)
+	{
+		fragment = new SWFragment(lights);
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+	}
+	
+	void addTriangle(int index)
+	{
+		if(nTriangles == triangles.length)
+			triangles = Arrays.copyOf(triangles, 2*triangles.length);
+		triangles[nTriangles++] = index;
+	}
+	
+	int getNumberOfTriangles()
+	{
+		return nTriangles;
+	}
+	
+	int getTriangle(int i)
+	{
+		return triangles[i];
+	}
+	
+	/**
+	 * Forget the binned triangles. The index array is kept for the next 
+	 * frame.
+	 */
+	void clear()
+	{
+		nTriangles = 0;
+		statistics.clear();
+	}
+}
@@ -0,0 +1,104 @@
+package jrtr.swrenderer;
+
+import jrtr.Material;
+
+/**
+ * A triangle after the vertex transformation, as it is stored by the
+ * {@link SWRenderContext} until the screen tiles are rasterized. It holds
+ * the vertex data that is needed for rasterization and the edge functions
+ * that are set up once per triangle. Triangles are pooled by the render 
+ * context and reused in the next frame.
+ */
+class SWTriangle {
+	
+	/**
+	 * Homogeneous pixel coordinates (x, y, z, w) of the three vertices.
+	 */
+	final float[][] positions = new float[3][4];
+	
+	/**
+	 * The varyings of the three vertices, see {@link SWClipper#VARYINGS}. 
+	 * COLOR, NORMAL, TEXCOORD and VIEW_POSITION are the indices of the first 
+	 * component of the vertex attributes. The position in camera coordinates 
+	 * is only set by the vertex stages of {@link SWShader}s.
+	 */
+	final float[][] varyings = new float[3][SWClipper.VARYINGS];
+	static final int COLOR = SWClipper.COLOR - SWClipper.FIRST_VARYING;
+	static final int NORMAL = SWClipper.NORMAL - SWClipper.FIRST_VARYING;
+	static final int TEXCOORD = SWClipper.TEXCOORD - SWClipper.FIRST_VARYING;
+	static final int VIEW_POSITION = SWClipper.VIEW_POSITION - SWClipper.FIRST_VARYING;
+	
+	/**
+	 * @return the bit mask of n varyings starting at varying i.
+	 */
+	static int getVaryingMask(int i, int n)
+	{
+		return ((1<<n) - 1) << i;
+	}
+	
+	/**
+	 * The texture of the material of the triangle, or null.
+	 */
+	SWTexture texture;
+	
+	/**
+	 * The material of the triangle, and the fragment stage of its shader 
+	 * with the call site slot it is shaded from, see 
+	 * {@link SWRenderContext#shadeFragment}. The slot is negative for the 
+	 * built-in shading.
+	 */
+	Material material;
+	SWFragmentStage fragmentStage;
+	int shaderSlot;
+	
+	/**
+	 * The integer edge functions of the triangle in fixed point, including 
+	 * the bias of the fill rule. Pixel (x, y) is inside the triangle if 
+	 * fixedEdges[i]*x + fixedEdges[3+i]*y + fixedEdges[6+i] >= 0 for all i.
+	 */
+	final long[] fixedEdges = new long[9];
+	
+	/**
+	 * The offsets of the integer edge functions from a pixel to its samples 
+	 * in the multisample mode, three per sample. Sample s of pixel (x, y) is 
+	 * inside the triangle if the edge functions of the pixel plus 
+	 * sampleEdges[3*s+i] are >= 0 for all i. maxSampleEdges holds the 
+	 * maximum offset of each edge function.
+	 */
+	final long[] sampleEdges = new long[3*SWRenderContext.MAX_SAMPLES];
+	final long[] maxSampleEdges = new long[3];
+	
+	/**
+	 * The edge functions multiplied by their scales as planes, i.e., the 
+	 * inverse of the matrix with the homogeneous 2D vertex coordinates 
+	 * (x, y, w) as rows, stored row by row. Edge function i evaluated at 
+	 * pixel (x, y) is edges[i]*x + edges[3+i]*y + edges[6+i].
+	 */
+	final float[] edges = new float[9];
+	
+	/**
+	 * The planes of 1/w and of the depth z/w in pixel coordinates. The 
+	 * value at pixel (x, y) is plane[0]*x + plane[1]*y + plane[2].
+	 */
+	final float[] oneOverW = new float[3];
+	final float[] depth = new float[3];
+	
+	/**
+	 * The planes of the varyings divided by w, three floats per varying. 
+	 * Varying i at pixel (x, y) is the value of its plane divided by the 
+	 * value of the 1/w plane.
+	 */
+	final float[] varyingPlanes = new float[3*SWClipper.VARYINGS];
+	
+	/**
+	 * The size classes of triangles, which are rasterized differently, see 
+	 * {@link SWRenderContext#setAdaptiveRasterization(boolean)}.
+	 */
+	static final int SMALL = 0, MEDIUM = 1, LARGE = 2;
+	int sizeClass;
+	
+	/**
+	 * Pixel bounding box of the triangle, clamped to the screen.
+	 */
+	int minX, minY, maxX, maxY;
+}
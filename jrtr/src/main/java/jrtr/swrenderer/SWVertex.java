@@ -0,0 +1,126 @@
+package jrtr.swrenderer;
+
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Matrix4f;
+
+import jrtr.Material;
+
+/**
+ * The input of the vertex stage of a {@link SWShader}: the attributes of one 
+ * vertex in object coordinates, and the transformations, the material and 
+ * the lights of the shape it belongs to. Attributes that the shape does not 
+ * provide are zero. The render context reuses one object for all vertices.
+ */
+public class SWVertex {
+	
+	public final float[] position = new float[3];
+	public final float[] normal = new float[3];
+	public final float[] color = new float[3];
+	public final float[] texcoord = new float[2];
+	
+	/**
+	 * Temporary storage for shaders, e.g., for the result of 
+	 * {@link SWLights#shade}.
+	 */
+	public final float[] lighting = new float[6];
+	
+	private final Matrix4f modelView = new Matrix4f();
+	private final Matrix3f normalMatrix = new Matrix3f();
+	private Material material;
+	private SWLights lights;
+	
+	/**
+	 * Set the shape the following vertices belong to.
+	 * 
+	 * @param objectToWorld the transformation of the shape
+	 * @param camera the camera matrix
+	 */
+	void setShape(Matrix4f objectToWorld, Matrix4f camera, Material material, SWLights lights)
+	{
+		modelView.mul(camera, objectToWorld);
+		// normals are transformed with the inverse transpose
+		modelView.getRotationScale(normalMatrix);
+		if(normalMatrix.determinant() != 0)
+		{
+			normalMatrix.invert();
+			normalMatrix.transpose();
+		}
+		this.material = material;
+		this.lights = lights;
+	}
+	
+	void set(int i, float[] positions, float[] normals, float[] colors, float[] texcoords)
+	{
+		for(int k=0; k<3; k++)
+		{
+			position[k] = positions[3*i+k];
+			normal[k] = normals[3*i+k];
+			color[k] = colors[3*i+k];
+		}
+		texcoord[0] = texcoords[2*i];
+		texcoord[1] = texcoords[2*i+1];
+	}
+	
+	/**
+	 * @return the transformation from object to camera coordinates.
+	 */
+	public Matrix4f getModelView()
+	{
+		return modelView;
+	}
+	
+	/**
+	 * @return the transformation of normals from object to camera 
+	 * coordinates.
+	 */
+	public Matrix3f getNormalMatrix()
+	{
+		return normalMatrix;
+	}
+	
+	public Material getMaterial()
+	{
+		return material;
+	}
+	
+	public SWLights getLights()
+	{
+		return lights;
+	}
+	
+	/**
+	 * Stores the position of the vertex in camera coordinates at 
+	 * out[offset..offset+2].
+	 */
+	public void getViewPosition(float[] out, int offset)
+	{
+		Matrix4f m = modelView;
+		float x = position[0], y = position[1], z = position[2];
+		out[offset] = m.m00*x + m.m01*y + m.m02*z + m.m03;
+		out[offset+1] = m.m10*x + m.m11*y + m.m12*z + m.m13;
+		out[offset+2] = m.m20*x + m.m21*y + m.m22*z + m.m23;
+	}
+	
+	/**
+	 * Stores the unit normal of the vertex in camera coordinates at 
+	 * out[offset..offset+2]. A zero normal stays zero.
+	 */
+	public void getViewNormal(float[] out, int offset)
+	{
+		Matrix3f m = normalMatrix;
+		float x = normal[0], y = normal[1], z = normal[2];
+		float nx = m.m00*x + m.m01*y + m.m02*z;
+		float ny = m.m10*x + m.m11*y + m.m12*z;
+		float nz = m.m20*x + m.m21*y + m.m22*z;
+		float length = (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if(length > 0)
+		{
+			nx /= length;
+			ny /= length;
+			nz /= length;
+		}
+		out[offset] = nx;
+		out[offset+1] = ny;
+		out[offset+2] = nz;
+	}
+}
@@ -0,0 +1,63 @@
+package jrtr.swrenderer;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * The clip space positions of the vertices of one {@link jrtr.VertexData}, 
+ * stored as a structure of arrays. Every vertex is transformed once per 
+ * draw call, and the triangles are then assembled from the indices. Along 
+ * with the position, the outcode of every vertex is stored, see 
+ * {@link SWClipper#getOutcode(float, float, float, float)}, and its fixed 
+ * point screen coordinates. These are only valid if the vertex is not 
+ * outside of a clipping plane.
+ * <p>
+ * If the shape is drawn with a {@link SWShader}, the buffer also holds the 
+ * {@link SWClipper#VARYINGS} varyings of every vertex that the vertex 
+ * stage computed.
+ * <p>
+ * The arrays only grow, so the buffer is reused for all meshes without 
+ * allocating once it is large enough.
+ */
+class SWVertexBuffer {
+	
+	float[] x = new float[0], y = new float[0], z = new float[0], w = new float[0];
+	int[] outcodes = new int[0];
+	int[] fixedX = new int[0], fixedY = new int[0];
+	float[] varyings = new float[0];
+	
+	/**
+	 * Transforms the first n positions (x, y, z) with the matrix m, for a 
+	 * viewport of the given size.
+	 */
+	void transform(Matrix4f m, float[] positions, int n, int width, int height)
+	{
+		if(x.length < n)
+		{
+			x = new float[n];
+			y = new float[n];
+			z = new float[n];
+			w = new float[n];
+			outcodes = new int[n];
+			fixedX = new int[n];
+			fixedY = new int[n];
+			varyings = new float[n*SWClipper.VARYINGS];
+		}
+		
+		float halfWidth = width/2f, halfHeight = height/2f;
+		for(int i=0; i<n; i++)
+		{
+			float px = positions[3*i], py = positions[3*i+1], pz = positions[3*i+2];
+			float cx = m.m00*px + m.m01*py + m.m02*pz + m.m03;
+			float cy = m.m10*px + m.m11*py + m.m12*pz + m.m13;
+			float cz = m.m20*px + m.m21*py + m.m22*pz + m.m23;
+			float cw = m.m30*px + m.m31*py + m.m32*pz + m.m33;
+			x[i] = cx;
+			y[i] = cy;
+			z[i] = cz;
+			w[i] = cw;
+			outcodes[i] = SWClipper.getOutcode(cx, cy, cz, cw);
+			fixedX[i] = SWRenderContext.toFixedPoint(halfWidth*(cx + cw), cw);
+			fixedY[i] = SWRenderContext.toFixedPoint(halfHeight*(cw - cy), cw);
+		}
+	}
+}
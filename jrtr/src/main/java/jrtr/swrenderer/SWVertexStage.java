@@ -0,0 +1,19 @@
+package jrtr.swrenderer;
+
+/**
+ * The vertex stage of a {@link SWShader}. It is called once for every vertex 
+ * of a shape and computes the varyings of the vertex from its attributes. 
+ * The position of the vertex in clip coordinates is always computed by the 
+ * render context.
+ */
+@FunctionalInterface
+public interface SWVertexStage {
+	
+	/**
+	 * @param vertex the attributes of the vertex and the transformations of 
+	 * the shape
+	 * @param varyings receives the {@link SWShader#VARYINGS} varyings of the 
+	 * vertex, see {@link SWShader#COLOR} and the following constants
+	 */
+	public void shade(SWVertex vertex, float[] varyings);
+}
@@ -285,17 +285,29 @@ public class RobotScene {
 			} else
 				counterToInvertRotations = -1;
 		
-			leftArm.getTransformation().mul(rotLeftArm);
-			rightArm.getTransformation().mul(rotRightArm);
+			rotate(leftArm, rotLeftArm);
+			rotate(rightArm, rotRightArm);
 			
-			leftElbow.getTransformation().mul(rotLeftElbow);
-			rightElbow.getTransformation().mul(rotRightElbow);
+			rotate(leftElbow, rotLeftElbow);
+			rotate(rightElbow, rotRightElbow);
 			
-			leftLeg.getTransformation().mul(rotRightArm);
-			rightLeg.getTransformation().mul(rotLeftArm);
+			rotate(leftLeg, rotRightArm);
+			rotate(rightLeg, rotLeftArm);
 			
-			rightKnee.getTransformation().mul(rotKnees);
-			leftKnee.getTransformation().mul(rotKnees);
+			rotate(rightKnee, rotKnees);
+			rotate(leftKnee, rotKnees);
+		}
+		
+		/**
+		 * Multiplies the transformation of a joint with a rotation. The
+		 * transformation is set again, so the scene manager updates the cached
+		 * world transformations below the joint.
+		 */
+		private void rotate(TransformGroup joint, Matrix4f rotation)
+		{
+			Matrix4f t = joint.getTransformation();
+			t.mul(rotation);
+			joint.setTransformation(t);
 		}
 	}
 	
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+
+import javax.vecmath.Vector3f;
+
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.swrenderer.SWRenderContext;
+import meshes.Primitives;
+
+/**
+ * Checks that the software renderer does not allocate memory in the steady
+ * state. A few shapes are rendered until the JIT compiler has warmed up, then
+ * the bytes allocated by the rendering thread are counted over a number of
+ * frames. This includes the traversal of the scene manager, which fills the
+ * render list of the renderer, and the sorting of the shapes from front to
+ * back.
+ */
+public class AllocationCheck {
+
+	public static void main(String[] args)
+	{
+		int warmupFrames = 200, frames = 100;
+
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(640, 480);
+		renderContext.setThreadCount(1);
+		renderContext.setSortFrontToBack(true);
+
+		Shape torus = Primitives.makeTorus(30, 30, 2f, 1f, renderContext);
+		Shape cylinder = Primitives.makeCylinder(30, 3, 1, renderContext);
+		Shape cube = Primitives.makeCube(renderContext);
+		torus.getTransformation().rotX(0.7f);
+		cylinder.getTransformation().setTranslation(new Vector3f(1, 0, 2));
+		cube.getTransformation().setTranslation(new Vector3f(-2, 1, 3));
+		SimpleSceneManager sceneManager = new SimpleSceneManager();
+		sceneManager.addShape(torus);
+		sceneManager.addShape(cylinder);
+		sceneManager.addShape(cube);
+		renderContext.setSceneManager(sceneManager);
+
+		for(int i=0; i<warmupFrames; i++)
+			renderContext.display();
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		for(int i=0; i<frames; i++)
+			renderContext.display();
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+		System.out.println("Allocated " + allocated + " bytes in " + frames + " frames (" + allocated/frames + " bytes per frame).");
+		if(allocated > 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.util.Random;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+import jrtr.GraphSceneManager;
+import jrtr.Shape;
+import jrtr.ShapeNode;
+import jrtr.TransformGroup;
+import jrtr.swrenderer.SWRenderContext;
+import jrtr.swrenderer.SWStatistics;
+import meshes.Primitives;
+
+/**
+ * Checks that the incremental rendering of the software renderer produces
+ * the same images as rendering every frame completely, and measures how
+ * much it saves. A grid of shapes, each below a transform group of its
+ * own, is rendered by two renderers, one of them with the incremental
+ * rendering. In every frame, one transform group moves, and in a few
+ * frames the camera moves. The check fails if a pixel differs. This is
+ * done without and with multisampling, and with sorting.
+ */
+public class IncrementalRenderingCheck {
+	
+	public static void main(String[] args)
+	{
+		int frames = 200, width = 640, height = 480;
+		
+		SWRenderContext full = new SWRenderContext();
+		SWRenderContext incremental = new SWRenderContext();
+		incremental.setIncrementalRendering(true);
+		
+		GraphSceneManager sceneManager = new GraphSceneManager();
+		TransformGroup root = new TransformGroup();
+		int columns = 6, rows = 4;
+		TransformGroup[] groups = new TransformGroup[columns*rows];
+		for(int i=0; i<groups.length; i++)
+		{
+			Shape shape;
+			if(i%3 == 0)
+				shape = Primitives.makeCube(full);
+			else if(i%3 == 1)
+				shape = Primitives.makeTorus(20, 20, 0.5f, 0.25f, full);
+			else
+				shape = Primitives.makeCylinder(20, 1, 0.5f, full);
+			groups[i] = new TransformGroup(new Vector3f(1.6f*(i%columns) - 4, 1.8f*(i/columns) - 2.7f, 0));
+			groups[i].addNode(new ShapeNode(shape));
+			root.addNode(groups[i]);
+		}
+		sceneManager.setRootNode(root);
+		
+		String[] names = {"1 sample", "4 samples", "sorted"};
+		System.out.println("mode        different pixels   dirty tiles   skipped items   full ms   incremental ms");
+		boolean failed = false;
+		for(int mode=0; mode<names.length; mode++)
+		{
+			for(SWRenderContext renderContext : new SWRenderContext[]{full, incremental})
+			{
+				renderContext.setViewportSize(width, height);
+				renderContext.setThreadCount(1);
+				renderContext.setTileSize(32);
+				renderContext.setSampleCount(mode == 1 ? 4 : 1);
+				renderContext.setSortFrontToBack(mode == 2);
+				renderContext.setSceneManager(sceneManager);
+			}
+			
+			Random random = new Random(1);
+			Matrix4f rotation = new Matrix4f();
+			int[] expected = new int[width*height], actual = new int[width*height];
+			long differentPixels = 0, dirtyTiles = 0, skippedItems = 0, fullTime = 0, incrementalTime = 0;
+			for(int i=0; i<frames; i++)
+			{
+				TransformGroup group = groups[random.nextInt(groups.length)];
+				Matrix4f t = group.getTransformation();
+				rotation.rotY(random.nextFloat());
+				t.mul(rotation);
+				t.m03 += 0.4f*random.nextFloat() - 0.2f;
+				t.m13 += 0.4f*random.nextFloat() - 0.2f;
+				group.setTransformation(t);
+				if(i%50 == 25)
+				{
+					sceneManager.getCamera().setCenterOfProjection(new Vector3f(random.nextFloat(), random.nextFloat(), 10));
+					sceneManager.getCamera().setLookAtPoint(new Vector3f(0, 0, 0));
+				}
+				
+				long start = System.nanoTime();
+				full.display();
+				fullTime += System.nanoTime() - start;
+				start = System.nanoTime();
+				incremental.display();
+				incrementalTime += System.nanoTime() - start;
+				
+				full.getColorBuffer().getRGB(0, 0, width, height, expected, 0, width);
+				incremental.getColorBuffer().getRGB(0, 0, width, height, actual, 0, width);
+				for(int j=0; j<expected.length; j++)
+				{
+					if(expected[j] != actual[j])
+						differentPixels++;
+				}
+				SWStatistics statistics = incremental.getStatistics();
+				dirtyTiles += statistics.getDirtyTiles();
+				skippedItems += statistics.getSkippedRenderItems();
+			}
+			
+			System.out.printf("%-11s %16d %13.1f %15.1f %9.2f %16.2f%n", names[mode], differentPixels,
+					(double)dirtyTiles/frames, (double)skippedItems/frames, fullTime*1e-6/frames,
+					incrementalTime*1e-6/frames);
+			failed |= differentPixels > 0;
+		}
+		if(failed)
+			System.exit(1);
+	}
+}
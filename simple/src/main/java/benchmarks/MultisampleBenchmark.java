@@ -0,0 +1,68 @@
+package benchmarks;
+
+import javax.vecmath.Vector3f;
+
+import jrtr.Material;
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.swrenderer.SWRenderContext;
+import jrtr.swrenderer.SWStatistics;
+import jrtr.swrenderer.SWTexture;
+import meshes.Primitives;
+
+/**
+ * Compares the cost of the multisample modes of the software renderer with
+ * rendering without multisampling. For every sample count, it reports the
+ * time per frame, how often a pixel was shaded and how many samples passed
+ * the depth test. Since a triangle is shaded once per pixel, the number of
+ * shaded pixels only grows by the pixels on the edges of the triangles.
+ * <p>
+ * Run it from the simple directory, or pass the path of the texture as an
+ * argument. The optional second argument is the number of threads.
+ */
+public class MultisampleBenchmark {
+
+	public static void main(String[] args) throws Exception
+	{
+		String textureFile = args.length > 0 ? args[0] : "../textures/wood.jpg";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int width = 800, height = 800, warmupFrames = 20, frames = 50;
+
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(width, height);
+		renderContext.setThreadCount(threads);
+
+		Material wood = new Material();
+		wood.swTexture = (SWTexture) renderContext.makeTexture();
+		wood.swTexture.load(textureFile);
+		Shape torus = Primitives.makeTorus(50, 50, 2f, 1f, renderContext);
+		Shape cylinder = Primitives.makeCylinder(50, 3, 1, renderContext);
+		Shape cube = Primitives.makeCube(renderContext);
+		torus.getTransformation().rotX(0.7f);
+		cylinder.getTransformation().setTranslation(new Vector3f(1, 0, 2));
+		cylinder.setMaterial(wood);
+		cube.getTransformation().setTranslation(new Vector3f(-2, 1, 3));
+		SimpleSceneManager sceneManager = new SimpleSceneManager();
+		sceneManager.addShape(torus);
+		sceneManager.addShape(cylinder);
+		sceneManager.addShape(cube);
+		renderContext.setSceneManager(sceneManager);
+
+		System.out.println("samples   ms per frame   shaded pixels   passed samples");
+		for(int samples : new int[]{1, 4, 8})
+		{
+			renderContext.setSampleCount(samples);
+			for(int i=0; i<warmupFrames; i++)
+				renderContext.display();
+
+			long start = System.nanoTime();
+			for(int i=0; i<frames; i++)
+				renderContext.display();
+			double ms = (System.nanoTime() - start)*1e-6/frames;
+
+			SWStatistics statistics = renderContext.getStatistics();
+			System.out.printf("%7d %14.2f %15d %16d%n", samples, ms, statistics.getShadedPixels(),
+					statistics.getDepthTestPassedFragments());
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import javax.vecmath.Vector3f;
+
+import jrtr.ObjReader;
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.VertexData;
+import jrtr.swrenderer.SWRenderContext;
+
+/**
+ * Measures the software renderer on a scene with high overdraw. Several
+ * copies of the bunny are placed one behind the other along the viewing
+ * direction, and drawn from front to back. The counters of the renderer
+ * show how much of the hidden geometry is rejected early.
+ * <p>
+ * Run it from the simple directory, or pass the path of the bunny as an
+ * argument. The optional second argument is the number of threads.
+ */
+public class OverdrawBenchmark {
+	
+	public static void main(String[] args) throws Exception
+	{
+		String objFile = args.length > 0 ? args[0] : "../obj/bunny.obj";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int copies = 4, warmupFrames = 20, frames = 50;
+		
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(1024, 1024);
+		renderContext.setThreadCount(threads);
+		
+		VertexData bunny = ObjReader.read(objFile, 5, renderContext);
+		addPositionColors(bunny, 5);
+		
+		SimpleSceneManager sceneManager = new SimpleSceneManager();
+		for(int i=0; i<copies; i++)
+		{
+			Shape shape = new Shape(bunny);
+			shape.getTransformation().setTranslation(new Vector3f(0.3f*i, 0, -2*i));
+			sceneManager.addShape(shape);
+		}
+		renderContext.setSceneManager(sceneManager);
+		
+		for(int i=0; i<warmupFrames; i++)
+			renderContext.display();
+		
+		long start = System.nanoTime();
+		for(int i=0; i<frames; i++)
+			renderContext.display();
+		double seconds = (System.nanoTime() - start)*1e-9;
+		
+		System.out.printf("%.2f ms per frame, %d copies of %d triangles%n",
+				1000*seconds/frames, copies, bunny.getIndices().length/3);
+		System.out.println(renderContext.getStatistics());
+	}
+	
+	/**
+	 * Colors the vertices by their position, so that the image shows the
+	 * shape of the mesh.
+	 */
+	private static void addPositionColors(VertexData vertexData, float scale)
+	{
+		float[] positions = null;
+		for(VertexData.VertexElement element : vertexData.getElements())
+			if(element.getSemantic() == VertexData.Semantic.POSITION)
+				positions = element.getData();
+		
+		float[] colors = new float[positions.length];
+		for(int i=0; i<colors.length; i++)
+			colors[i] = 0.5f + positions[i]/scale;
+		vertexData.addElement(colors, VertexData.Semantic.COLOR, 3);
+	}
+}
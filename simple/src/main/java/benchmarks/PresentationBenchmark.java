@@ -0,0 +1,98 @@
+package benchmarks;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+import jrtr.Material;
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.swrenderer.SWJPanel;
+import jrtr.swrenderer.SWRenderContext;
+import jrtr.swrenderer.SWTexture;
+import meshes.Primitives;
+
+/**
+ * Compares drawing the {@link SWJPanel} synchronously with its asynchronous
+ * mode with two and three buffers. The main thread plays the part of the
+ * Swing event dispatch thread and paints the panel every 16 milliseconds.
+ * Before every paint, it rotates the torus while it holds the scene lock of
+ * the renderer, as applications do in the asynchronous mode.
+ * For every mode, it reports how long the painting thread was blocked per
+ * paint, the rendered and presented frames, and the average time from the
+ * completion of a frame to its presentation.
+ * <p>
+ * Run it from the simple directory, or pass the path of the texture as an
+ * argument. The optional second argument is the number of threads of the
+ * renderer.
+ */
+public class PresentationBenchmark {
+	
+	public static void main(String[] args) throws Exception
+	{
+		String textureFile = args.length > 0 ? args[0] : "../textures/wood.jpg";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int width = 800, height = 800, paints = 200;
+		long paintInterval = 16000000;
+		
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(width, height);
+		renderContext.setThreadCount(threads);
+		
+		Material wood = new Material();
+		wood.swTexture = (SWTexture) renderContext.makeTexture();
+		wood.swTexture.load(textureFile);
+		Shape torus = Primitives.makeTorus(50, 50, 2f, 1f, renderContext);
+		Shape cylinder = Primitives.makeCylinder(50, 3, 1, renderContext);
+		Shape cube = Primitives.makeCube(renderContext);
+		torus.getTransformation().rotX(0.7f);
+		cylinder.getTransformation().setTranslation(new Vector3f(1, 0, 2));
+		cylinder.setMaterial(wood);
+		cube.getTransformation().setTranslation(new Vector3f(-2, 1, 3));
+		SimpleSceneManager sceneManager = new SimpleSceneManager();
+		sceneManager.addShape(torus);
+		sceneManager.addShape(cylinder);
+		sceneManager.addShape(cube);
+		renderContext.setSceneManager(sceneManager);
+		
+		BufferedImage screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics g = screen.getGraphics();
+		Matrix4f rotation = new Matrix4f();
+		rotation.rotY(0.02f);
+		
+		System.out.println("mode           blocked ms per paint   rendered   presented   latency ms");
+		String[] names = {"synchronous", "double", "triple"};
+		for(int mode=0; mode<names.length; mode++)
+		{
+			SWJPanel panel = new SWJPanel(renderContext);
+			if(mode > 0)
+			{
+				panel.setBufferCount(mode + 1);
+				panel.setAsynchronous(true);
+			}
+			
+			long blocked = 0;
+			long next = System.nanoTime();
+			for(int i=0; i<paints; i++)
+			{
+				synchronized(renderContext.getSceneLock())
+				{
+					torus.getTransformation().mul(rotation);
+				}
+				long start = System.nanoTime();
+				panel.paintComponent(g);
+				long end = System.nanoTime();
+				blocked += end - start;
+				next += paintInterval;
+				if(next > end)
+					Thread.sleep((next - end)/1000000, (int)((next - end)%1000000));
+			}
+			panel.setAsynchronous(false);
+			
+			System.out.printf("%-14s %21.2f %10d %11d %12.2f%n", names[mode], blocked*1e-6/paints,
+					panel.getRenderedFrames(), panel.getPresentedFrames(), panel.getLatency());
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import jrtr.ObjReader;
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.swrenderer.SWRenderContext;
+import jrtr.swrenderer.SWStatistics;
+import meshes.Primitives;
+
+/**
+ * Compares the adaptive rasterization of the software renderer with the
+ * block walk for all triangles. The bunny consists mostly of triangles that
+ * cover only a few pixels, the landscape of triangles that cover many
+ * blocks. For both, the time per frame and the counters of the size classes
+ * of the triangles and of the blocks that were accepted or rejected as a
+ * whole are reported.
+ * <p>
+ * Run it from the simple directory, or pass the path of the obj directory
+ * as an argument.
+ */
+public class RasterizationBenchmark {
+
+	public static void main(String[] args) throws Exception
+	{
+		String objDirectory = args.length > 0 ? args[0] : "../obj";
+		int warmupFrames = 20, frames = 50;
+
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(800, 800);
+		renderContext.setThreadCount(1);
+
+		String[] names = {"bunny", "landscape"};
+		Shape[] shapes = {
+				new Shape(ObjReader.read(objDirectory + "/bunny.obj", 2, renderContext)),
+				Primitives.makeFractalLandscape(4, 2, renderContext)};
+		shapes[1].getTransformation().rotX(-1f);
+
+		System.out.println("mesh        adaptive   ms per frame   small   medium    large   accepted   rejected");
+		for(int i=0; i<shapes.length; i++)
+		{
+			SimpleSceneManager sceneManager = new SimpleSceneManager();
+			sceneManager.addShape(shapes[i]);
+			renderContext.setSceneManager(sceneManager);
+
+			for(boolean adaptive : new boolean[]{false, true})
+			{
+				renderContext.setAdaptiveRasterization(adaptive);
+				for(int j=0; j<warmupFrames; j++)
+					renderContext.display();
+				long start = System.nanoTime();
+				for(int j=0; j<frames; j++)
+					renderContext.display();
+				double ms = (System.nanoTime() - start)*1e-6/frames;
+
+				SWStatistics statistics = renderContext.getStatistics();
+				System.out.printf("%-11s %-8s %14.2f %7d %8d %8d %10d %10d%n", names[i], adaptive ? "on" : "off", ms,
+						statistics.getSmallTriangles(), statistics.getMediumTriangles(), statistics.getLargeTriangles(),
+						statistics.getAcceptedBlocks(), statistics.getRejectedBlocks());
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.Stack;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+
+import jrtr.GraphSceneManager;
+import jrtr.Node;
+import jrtr.RenderItem;
+import jrtr.RenderList;
+import jrtr.Shape;
+import jrtr.ShapeNode;
+import jrtr.TransformGroup;
+import jrtr.swrenderer.SWRenderContext;
+import meshes.Primitives;
+
+/**
+ * Measures the traversal of a scene graph with about 100000 nodes by the
+ * {@link GraphSceneManager}, which fills a {@link RenderList} that is kept
+ * from traversal to traversal. The graph has 250 rows of 200 transform
+ * groups with a cube each. Before every traversal, one of the transform
+ * groups is moved.
+ * <p>
+ * The reference is a copy of the traversal of the iterator that the scene
+ * manager had before the render lists, see {@link #iterate}: it keeps the
+ * nodes and matrices on {@link Stack}s, multiplies the world matrices into
+ * new matrices, and returns a new {@link RenderItem} for every shape, with
+ * a null shape if the shape is outside of the frustum. Unlike the scene
+ * manager, it caches nothing, tests every shape and does not cull groups.
+ * For both, the time per traversal, the bytes allocated by the traversing
+ * thread per traversal, the resulting allocation rate and the visible
+ * shapes are reported, and the culling counters of the scene manager.
+ */
+public class RenderListBenchmark {
+
+	public static void main(String[] args)
+	{
+		int rows = 250, columns = 200, warmupTraversals = 100, traversals = 200;
+
+		SWRenderContext renderContext = new SWRenderContext();
+		Shape cube = Primitives.makeCube(renderContext);
+
+		TransformGroup root = new TransformGroup();
+		TransformGroup[] groups = new TransformGroup[rows*columns];
+		for(int i=0; i<rows; i++)
+		{
+			TransformGroup row = new TransformGroup(new Vector3f(0, -2, -3*i));
+			for(int j=0; j<columns; j++)
+			{
+				TransformGroup group = new TransformGroup(new Vector3f(3*(j - columns/2), 0, 0));
+				group.addNode(new ShapeNode(cube));
+				row.addNode(group);
+				groups[i*columns + j] = group;
+			}
+			root.addNode(row);
+		}
+		GraphSceneManager sceneManager = new GraphSceneManager();
+		sceneManager.setRootNode(root);
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		RenderList renderList = new RenderList();
+		Matrix4f rotation = new Matrix4f();
+		rotation.rotY(0.1f);
+
+		System.out.println("traversal        us per traversal   bytes per traversal   MB/s   visible shapes");
+		String[] names = {"stack iterator", "render list"};
+		for(int mode=0; mode<names.length; mode++)
+		{
+			long start = 0, allocated = 0;
+			int visible = 0;
+			for(int i=0; i<warmupTraversals + traversals; i++)
+			{
+				if(i == warmupTraversals)
+				{
+					start = System.nanoTime();
+					allocated = threadBean.getThreadAllocatedBytes(threadId);
+				}
+				TransformGroup group = groups[(int)((i*7919L) % groups.length)];
+				Matrix4f t = group.getTransformation();
+				t.mul(rotation);
+				group.setTransformation(t);
+
+				visible = 0;
+				if(mode == 0)
+					visible = iterate(sceneManager, root);
+				else
+				{
+					sceneManager.fillRenderList(renderList);
+					visible = renderList.size();
+				}
+			}
+			long time = System.nanoTime() - start;
+			allocated = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+
+			System.out.printf("%-16s %16.1f %21d %6.1f %16d%n", names[mode], time*1e-3/traversals,
+					allocated/traversals, allocated*1e3/time, visible);
+		}
+		System.out.printf("%d nodes visited, %d culled, %d accepted without a test%n", sceneManager.getVisitedNodes(),
+				sceneManager.getCulledNodes(), sceneManager.getAcceptedNodes());
+	}
+
+	/**
+	 * Traverses the graph like the old iterator of the scene manager and
+	 * returns the number of shapes in the frustum. The planes of the frustum
+	 * are the sums and differences of the rows of the view-projection matrix,
+	 * in world coordinates.
+	 */
+	private static int iterate(GraphSceneManager sceneManager, Node root)
+	{
+		Matrix4f viewProjection = new Matrix4f();
+		viewProjection.mul(sceneManager.getFrustum().getProjectionMatrix(), sceneManager.getCamera().getCameraMatrix());
+		Vector4f[] planes = new Vector4f[6];
+		Vector4f w = new Vector4f();
+		viewProjection.getRow(3, w);
+		for(int i=0; i<6; i++)
+		{
+			Vector4f row = new Vector4f();
+			viewProjection.getRow(i/2, row);
+			if(i%2 == 1)
+				row.negate();
+			row.add(w);
+			row.scale(1/(float)Math.sqrt(row.x*row.x + row.y*row.y + row.z*row.z));
+			planes[i] = row;
+		}
+
+		Matrix4f identity = new Matrix4f();
+		identity.setIdentity();
+		Stack<Node> stack = new Stack<Node>();
+		Stack<Matrix4f> parentWorldStack = new Stack<Matrix4f>();
+		stack.push(root);
+		parentWorldStack.push(identity);
+		int visible = 0;
+		while(!stack.isEmpty())
+		{
+			Node element = stack.pop();
+			Matrix4f parentWorld = parentWorldStack.pop();
+			if(element instanceof ShapeNode)
+			{
+				Shape shape = ((ShapeNode)element).get3dObject();
+				Matrix4f objToWorld = new Matrix4f();
+				objToWorld.mul(parentWorld, shape.getTransformation());
+				Vector4f center = new Vector4f();
+				objToWorld.transform(shape.getBoundingSphereCenter(), center);
+				boolean inside = true;
+				for(int i=0; i<6; i++)
+				{
+					if(planes[i].dot(center) < -shape.getBoundingSphereRadius())
+						inside = false;
+				}
+				RenderItem r = new RenderItem(inside ? shape : null, objToWorld);
+				if(r.getShape() != null)
+					visible++;
+			}
+			else if(element instanceof TransformGroup)
+			{
+				Matrix4f world = new Matrix4f();
+				world.mul(parentWorld, element.getTransformation());
+				for(Node node : element.getChildren())
+				{
+					stack.push(node);
+					parentWorldStack.push(world);
+				}
+			}
+		}
+		return visible;
+	}
+}
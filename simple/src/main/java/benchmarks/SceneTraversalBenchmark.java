@@ -0,0 +1,97 @@
+package benchmarks;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+import jrtr.GraphSceneManager;
+import jrtr.Node;
+import jrtr.RenderList;
+import jrtr.Shape;
+import jrtr.ShapeNode;
+import jrtr.TransformGroup;
+import jrtr.swrenderer.SWRenderContext;
+import meshes.Primitives;
+
+/**
+ * Measures how long it takes to traverse the scene graph of the
+ * {@link GraphSceneManager}, without rendering. The scene is a floor of
+ * cubes and a number of robot rigs with the hierarchy of the robot scene.
+ * Before every traversal, the arms of one robot are rotated, so most of
+ * the scene is static. The time per traversal, the number of visible
+ * shapes and the culling counters of the last traversal are reported.
+ */
+public class SceneTraversalBenchmark {
+	
+	public static void main(String[] args)
+	{
+		int robots = 50, floorSize = 60, warmupTraversals = 2000, traversals = 500;
+		
+		SWRenderContext renderContext = new SWRenderContext();
+		Shape cube = Primitives.makeCube(renderContext);
+		
+		TransformGroup root = new TransformGroup(new Vector3f(0, 0, 0));
+		for(int i=0; i<floorSize; i++)
+			for(int j=0; j<floorSize; j++)
+				root.addNode(new TransformGroup(new Vector3f(3*(i-floorSize/2), -6.5f, -3*j),
+						new Node[]{new ShapeNode(cube)}));
+		TransformGroup[][] arms = new TransformGroup[robots][];
+		for(int i=0; i<robots; i++)
+		{
+			arms[i] = new TransformGroup[2];
+			root.addNode(makeRobot(cube, new Vector3f(2*(i%10) - 10, 0, -4*(i/10)), arms[i]));
+		}
+		
+		GraphSceneManager sceneManager = new GraphSceneManager();
+		sceneManager.setRootNode(root);
+		
+		RenderList renderList = new RenderList();
+		Matrix4f rotation = new Matrix4f();
+		rotation.rotX(0.05f);
+		long visibleItems = 0, start = 0;
+		for(int i=0; i<warmupTraversals + traversals; i++)
+		{
+			if(i == warmupTraversals)
+			{
+				start = System.nanoTime();
+				visibleItems = 0;
+			}
+			for(TransformGroup arm : arms[i%robots])
+			{
+				Matrix4f t = arm.getTransformation();
+				t.mul(rotation);
+				arm.setTransformation(t);
+			}
+			sceneManager.fillRenderList(renderList);
+			visibleItems += renderList.size();
+		}
+		double us = (System.nanoTime() - start)*1e-3/traversals;
+		System.out.printf("%.1f us per traversal, %d visible shapes%n", us, visibleItems/traversals);
+		System.out.printf("%d nodes visited, %d culled, %d accepted without a test%n", sceneManager.getVisitedNodes(),
+				sceneManager.getCulledNodes(), sceneManager.getAcceptedNodes());
+	}
+	
+	/**
+	 * Builds a rig with the hierarchy of the robot of the robot scene, with
+	 * a cube for every part, and returns the joints of its arms.
+	 */
+	private static TransformGroup makeRobot(Shape cube, Vector3f position, TransformGroup[] arms)
+	{
+		TransformGroup[] legs = new TransformGroup[2];
+		for(int side=0; side<2; side++)
+		{
+			float sign = side == 0 ? -1 : 1;
+			TransformGroup lowerArm = new TransformGroup(new Vector3f(0, -0.5f, 0), new Node[]{new ShapeNode(cube)});
+			TransformGroup elbow = new TransformGroup(new Vector3f(0, -0.45f, 0), new Node[]{lowerArm, new ShapeNode(cube)});
+			TransformGroup upperArm = new TransformGroup(new Vector3f(0, -0.8f, 0), new Node[]{elbow, new ShapeNode(cube)});
+			arms[side] = new TransformGroup(new Vector3f(sign*1.35f, 0.25f, 0), new Node[]{upperArm, new ShapeNode(cube)});
+			
+			TransformGroup foot = new TransformGroup(new Vector3f(0, -1, 0), new Node[]{new ShapeNode(cube)});
+			TransformGroup lowerLeg = new TransformGroup(new Vector3f(0, -1.2f, 0), new Node[]{foot, new ShapeNode(cube)});
+			TransformGroup knee = new TransformGroup(new Vector3f(0, -1, 0), new Node[]{lowerLeg, new ShapeNode(cube)});
+			TransformGroup upperLeg = new TransformGroup(new Vector3f(0, -1, 0), new Node[]{knee, new ShapeNode(cube)});
+			legs[side] = new TransformGroup(new Vector3f(sign*0.5f, -1.2f, 0), new Node[]{upperLeg, new ShapeNode(cube)});
+		}
+		TransformGroup head = new TransformGroup(new Vector3f(0, 1.4f, 0), new Node[]{new ShapeNode(cube)});
+		return new TransformGroup(position, new Node[]{head, arms[0], arms[1], legs[0], legs[1], new ShapeNode(cube)});
+	}
+}
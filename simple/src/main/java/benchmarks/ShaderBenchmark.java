@@ -0,0 +1,81 @@
+package benchmarks;
+
+import javax.vecmath.Vector3f;
+
+import jrtr.Light;
+import jrtr.Material;
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.swrenderer.SWRenderContext;
+import jrtr.swrenderer.SWShader;
+import jrtr.swrenderer.SWTexture;
+import meshes.Primitives;
+
+/**
+ * Compares the built-in shading of the software renderer with the Gouraud
+ * and the Phong shader, which light the scene with a point light and a
+ * directional light. The Gouraud shader evaluates the lights per vertex,
+ * the Phong shader per pixel, so its cost grows with the shaded pixels.
+ * <p>
+ * Run it from the simple directory, or pass the path of the texture as an
+ * argument. The optional second argument is the number of threads.
+ */
+public class ShaderBenchmark {
+
+	public static void main(String[] args) throws Exception
+	{
+		String textureFile = args.length > 0 ? args[0] : "../textures/wood.jpg";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int width = 800, height = 800, warmupFrames = 20, frames = 50;
+
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(width, height);
+		renderContext.setThreadCount(threads);
+
+		Material wood = new Material();
+		wood.swTexture = (SWTexture) renderContext.makeTexture();
+		wood.swTexture.load(textureFile);
+		Shape torus = Primitives.makeTorus(50, 50, 2f, 1f, renderContext);
+		Shape cylinder = Primitives.makeCylinder(50, 3, 1, renderContext);
+		Shape cube = Primitives.makeCube(renderContext);
+		torus.getTransformation().rotX(0.7f);
+		cylinder.getTransformation().setTranslation(new Vector3f(1, 0, 2));
+		cylinder.setMaterial(wood);
+		cube.getTransformation().setTranslation(new Vector3f(-2, 1, 3));
+		SimpleSceneManager sceneManager = new SimpleSceneManager();
+		sceneManager.addShape(torus);
+		sceneManager.addShape(cylinder);
+		sceneManager.addShape(cube);
+
+		Light pointLight = new Light();
+		pointLight.type = Light.Type.POINT;
+		pointLight.position = new Vector3f(3, 3, 5);
+		pointLight.ambient = new Vector3f(0.1f, 0.1f, 0.1f);
+		Light directionalLight = new Light();
+		directionalLight.direction = new Vector3f(-1, 1, 1);
+		directionalLight.diffuse = new Vector3f(0.4f, 0.4f, 0.5f);
+		sceneManager.addLight(pointLight);
+		sceneManager.addLight(directionalLight);
+		renderContext.setSceneManager(sceneManager);
+
+		String[] names = {"built-in", "gouraud", "phong"};
+		SWShader[] shaders = {null, SWShader.makeGouraudShader(), SWShader.makePhongShader()};
+		System.out.println("shader     ms per frame   shaded pixels");
+		for(int i=0; i<shaders.length; i++)
+		{
+			if(shaders[i] == null)
+				renderContext.useDefaultShader();
+			else
+				renderContext.useShader(shaders[i]);
+			for(int j=0; j<warmupFrames; j++)
+				renderContext.display();
+
+			long start = System.nanoTime();
+			for(int j=0; j<frames; j++)
+				renderContext.display();
+			double ms = (System.nanoTime() - start)*1e-6/frames;
+
+			System.out.printf("%-10s %13.2f %15d%n", names[i], ms, renderContext.getStatistics().getShadedPixels());
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+
+import jrtr.Material;
+import jrtr.ObjReader;
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.swrenderer.SWRenderContext;
+import jrtr.swrenderer.SWTexture;
+
+/**
+ * Measures the textured fill rate of the software renderer. The teapot is
+ * rendered with the wood texture so that it covers a large part of a 1080p
+ * viewport, and the number of covered pixels per second is reported.
+ * <p>
+ * Run it from the simple directory, or pass the paths of the teapot and the
+ * texture as arguments. The optional third argument is the number of threads.
+ */
+public class TextureFillRateBenchmark {
+
+	public static void main(String[] args) throws Exception
+	{
+		String objFile = args.length > 0 ? args[0] : "../obj/teapot_texcoords.obj";
+		String textureFile = args.length > 1 ? args[1] : "../textures/wood.jpg";
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		int warmupFrames = 20, frames = 50;
+
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(1920, 1080);
+		renderContext.setThreadCount(threads);
+
+		Material material = new Material();
+		material.swTexture = (SWTexture) renderContext.makeTexture();
+		material.swTexture.load(textureFile);
+
+		Shape teapot = new Shape(ObjReader.read(objFile, 7, renderContext));
+		teapot.setMaterial(material);
+		teapot.getTransformation().rotY(0.5f);
+
+		SimpleSceneManager sceneManager = new SimpleSceneManager();
+		sceneManager.addShape(teapot);
+		renderContext.setSceneManager(sceneManager);
+
+		for(int i=0; i<warmupFrames; i++)
+			renderContext.display();
+
+		long start = System.nanoTime();
+		for(int i=0; i<frames; i++)
+			renderContext.display();
+		double seconds = (System.nanoTime() - start)*1e-9;
+
+		// count the pixels covered by the teapot
+		BufferedImage image = renderContext.getColorBuffer();
+		long covered = 0;
+		for(int y=0; y<image.getHeight(); y++)
+			for(int x=0; x<image.getWidth(); x++)
+				if((image.getRGB(x, y) & 0xFFFFFF) != 0)
+					covered++;
+
+		System.out.printf("%.2f ms per frame, %d pixels covered, %.1f Mpixels/s textured fill rate%n",
+				1000*seconds/frames, covered, covered*frames/seconds*1e-6);
+	}
+}
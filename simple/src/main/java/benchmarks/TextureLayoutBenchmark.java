@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import jrtr.Material;
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.VertexData;
+import jrtr.swrenderer.SWRenderContext;
+import jrtr.swrenderer.SWTexture;
+
+/**
+ * Compares the row by row and the tiled texel layout of {@link SWTexture}.
+ * A textured quad fills the viewport and is rotated around the viewing
+ * direction, so the rasterizer walks the texture at different angles. At
+ * 90 degrees, consecutive pixels of a row are in consecutive texel rows.
+ * The texture is scaled up to 2048x2048 texels and mapped with about one
+ * texel per pixel, so the texels read in a frame do not fit into the cache.
+ * <p>
+ * Run it from the simple directory, or pass the path of the texture as an
+ * argument. The optional second argument is the number of threads.
+ */
+public class TextureLayoutBenchmark {
+	
+	public static void main(String[] args) throws Exception
+	{
+		String textureFile = args.length > 0 ? args[0] : "../textures/wood.jpg";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int[] angles = {0, 30, 45, 60, 90};
+		int warmupFrames = 20, frames = 50;
+		
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(1024, 1024);
+		renderContext.setThreadCount(threads);
+		
+		Material material = new Material();
+		material.swTexture = (SWTexture) renderContext.makeTexture();
+		material.swTexture.load(makeLargeTexture(textureFile, 2048));
+		
+		// The default camera sees [-5.77, 5.77]^2 at z = 0. The quad covers 
+		// this at all angles, with about one texel per pixel.
+		Shape quad = makeQuad(renderContext, 11.5f);
+		quad.setMaterial(material);
+		
+		SimpleSceneManager sceneManager = new SimpleSceneManager();
+		sceneManager.addShape(quad);
+		renderContext.setSceneManager(sceneManager);
+		
+		System.out.println("angle   row by row   tiled 4x4   [ms per frame]");
+		for(int angle : angles)
+		{
+			quad.getTransformation().rotZ((float)Math.toRadians(angle));
+			double[] times = new double[2];
+			for(int tiled=0; tiled<2; tiled++)
+			{
+				material.swTexture.setTiled(tiled == 1);
+				for(int i=0; i<warmupFrames; i++)
+					renderContext.display();
+				
+				long start = System.nanoTime();
+				for(int i=0; i<frames; i++)
+					renderContext.display();
+				times[tiled] = (System.nanoTime() - start)*1e-6/frames;
+			}
+			System.out.printf("%5d %12.2f %11.2f%n", angle, times[0], times[1]);
+		}
+	}
+	
+	/**
+	 * Scales the texture to size x size texels and writes it to a temporary 
+	 * file, so that the part of the texture that is visible does not fit 
+	 * into the cache.
+	 * 
+	 * @return the name of the temporary file
+	 */
+	private static String makeLargeTexture(String textureFile, int size) throws IOException
+	{
+		BufferedImage image = ImageIO.read(new File(textureFile));
+		BufferedImage large = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = large.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, size, size, null);
+		g.dispose();
+		
+		File file = File.createTempFile("texture", ".png");
+		file.deleteOnExit();
+		ImageIO.write(large, "png", file);
+		return file.getPath();
+	}
+	
+	/**
+	 * Makes a square in the xy-plane with texture coordinates covering the
+	 * whole texture.
+	 */
+	private static Shape makeQuad(SWRenderContext renderContext, float size)
+	{
+		float[] positions = {-size,-size,0, size,-size,0, size,size,0, -size,size,0};
+		float[] colors = {1,1,1, 1,1,1, 1,1,1, 1,1,1};
+		float[] uvs = {0,1, 1,1, 1,0, 0,0};
+		int[] indices = {0,1,2, 0,2,3};
+		
+		VertexData vertexData = renderContext.makeVertexData(4);
+		vertexData.addElement(positions, VertexData.Semantic.POSITION, 3);
+		vertexData.addElement(colors, VertexData.Semantic.COLOR, 3);
+		vertexData.addElement(uvs, VertexData.Semantic.TEXCOORD, 2);
+		vertexData.addIndices(indices);
+		return new Shape(vertexData);
+	}
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import jrtr.ObjReader;
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.swrenderer.SWRenderContext;
+import jrtr.swrenderer.SWStatistics;
+import meshes.Primitives;
+
+/**
+ * Reports for several meshes how many of the vertex references of the
+ * index buffer are served from the clip space vertex buffer of the
+ * software renderer, i.e., how many transformations are saved by
+ * transforming every vertex only once.
+ * <p>
+ * Run it from the simple directory, or pass the path of the obj directory
+ * as an argument.
+ */
+public class VertexCacheBenchmark {
+	
+	public static void main(String[] args) throws Exception
+	{
+		String objDirectory = args.length > 0 ? args[0] : "../obj";
+		int warmupFrames = 20, frames = 50;
+		
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(800, 800);
+		renderContext.setThreadCount(1);
+		
+		String[] names = {"torus", "cylinder", "cube", "teapot", "bunny"};
+		Shape[] shapes = {
+				Primitives.makeTorus(50, 50, 2, 1, renderContext),
+				Primitives.makeCylinder(50, 3, 1, renderContext),
+				Primitives.makeCube(renderContext),
+				new Shape(ObjReader.read(objDirectory + "/teapot.obj", 5, renderContext)),
+				new Shape(ObjReader.read(objDirectory + "/bunny.obj", 5, renderContext))};
+		
+		System.out.println("mesh        vertices   indices   hit ratio   ms per frame");
+		for(int i=0; i<shapes.length; i++)
+		{
+			SimpleSceneManager sceneManager = new SimpleSceneManager();
+			sceneManager.addShape(shapes[i]);
+			renderContext.setSceneManager(sceneManager);
+			
+			for(int j=0; j<warmupFrames; j++)
+				renderContext.display();
+			long start = System.nanoTime();
+			for(int j=0; j<frames; j++)
+				renderContext.display();
+			double ms = (System.nanoTime() - start)*1e-6/frames;
+			
+			SWStatistics statistics = renderContext.getStatistics();
+			System.out.printf("%-10s %9d %9d %11.2f %14.2f%n", names[i], statistics.getTransformedVertices(),
+					statistics.getVertexReferences(), statistics.getVertexCacheHitRatio(), ms);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package benchmarks;
+
+import java.util.Collections;
+
+import javax.vecmath.Vector3f;
+
+import jrtr.GraphSceneManager;
+import jrtr.Material;
+import jrtr.Node;
+import jrtr.Shape;
+import jrtr.ShapeNode;
+import jrtr.TransformGroup;
+import jrtr.swrenderer.SWRenderContext;
+import jrtr.swrenderer.SWStatistics;
+import jrtr.swrenderer.SWTexture;
+import meshes.Primitives;
+
+/**
+ * Compares the visibility buffer mode and the depth prepass mode of the
+ * software renderer with direct shading, without and with sorting the
+ * shapes from front to back. The scene graph is built like the
+ * one of the robot scene: a row of robots, one behind the other, standing
+ * on a floor of textured cubes. It is traversed once with the nearest robot
+ * first and once with the farthest robot first. The number of shaded
+ * pixels, of fragments that pass the depth test and of blocks rejected by
+ * the hierarchical depth test is reported for all modes.
+ * <p>
+ * Run it from the simple directory, or pass the path of the texture as an
+ * argument. The optional second argument is the number of threads.
+ */
+public class VisibilityBufferBenchmark {
+
+	private static Shape body, upperArm, lowerArm, upperLeg, lowerLeg, foot, smallJoint, bigJoint, head;
+
+	public static void main(String[] args) throws Exception
+	{
+		String textureFile = args.length > 0 ? args[0] : "../textures/wood.jpg";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int robots = 6, floorSize = 10, warmupFrames = 20, frames = 50;
+
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(1024, 1024);
+		renderContext.setThreadCount(threads);
+
+		Material wood = new Material();
+		wood.swTexture = (SWTexture) renderContext.makeTexture();
+		wood.swTexture.load(textureFile);
+		makeRobotShapes(renderContext, wood);
+		Shape cube = Primitives.makeCube(renderContext);
+		cube.setMaterial(wood);
+
+		// The children of a group are drawn in reverse order, so the robot
+		// added last is drawn first.
+		TransformGroup root = new TransformGroup(new Vector3f(0, 0, 0));
+		for(int i=0; i<floorSize; i++)
+			for(int j=0; j<floorSize; j++)
+				root.addNode(new TransformGroup(new Vector3f(3*(i-floorSize/2), -6.5f, 3*(j-floorSize+2)),
+						new Node[]{new ShapeNode(cube)}));
+		for(int i=robots-1; i>=0; i--)
+			root.addNode(makeRobot(new Vector3f(0.8f*i, 0, -4*i)));
+
+		GraphSceneManager sceneManager = new GraphSceneManager();
+		sceneManager.setRootNode(root);
+		renderContext.setSceneManager(sceneManager);
+
+		String[] modes = {"direct shading", "sorted", "visibility buffer", "depth prepass"};
+		System.out.println("order           mode                ms per frame   shaded pixels   depth passed   Hi-Z blocks");
+		for(int order=0; order<2; order++)
+		{
+			long[] shadedPixels = new long[modes.length];
+			for(int mode=0; mode<modes.length; mode++)
+			{
+				renderContext.setSortFrontToBack(mode == 1);
+				renderContext.setVisibilityBufferMode(mode == 2);
+				renderContext.setDepthPrepassMode(mode == 3);
+				for(int i=0; i<warmupFrames; i++)
+					renderContext.display();
+
+				long start = System.nanoTime();
+				for(int i=0; i<frames; i++)
+					renderContext.display();
+				double ms = (System.nanoTime() - start)*1e-6/frames;
+
+				SWStatistics statistics = renderContext.getStatistics();
+				shadedPixels[mode] = statistics.getShadedPixels();
+				System.out.printf("%-15s %-19s %12.2f %15d %14d %13d%n", order == 0 ? "front to back" : "back to front",
+						modes[mode], ms, shadedPixels[mode], statistics.getDepthTestPassedFragments(),
+						statistics.getHiZRejectedBlocks());
+			}
+			System.out.printf("Sorting saves %.1f%%, the visibility buffer %.1f%%, the depth prepass %.1f%% of the shaded pixels.%n",
+					100*(1 - (double)shadedPixels[1]/shadedPixels[0]), 100*(1 - (double)shadedPixels[2]/shadedPixels[0]),
+					100*(1 - (double)shadedPixels[3]/shadedPixels[0]));
+			Collections.reverse(root.getChildren());
+		}
+	}
+
+	private static void makeRobotShapes(SWRenderContext r, Material material)
+	{
+		body = Primitives.makeCube(r);
+		upperArm = Primitives.makeCylinder(30, 1f, 0.27f, r);
+		lowerArm = Primitives.makeCylinder(30, 1.2f, 0.22f, r);
+		upperLeg = Primitives.makeCylinder(30, 1.8f, 0.4f, r);
+		lowerLeg = Primitives.makeCylinder(30, 2, 0.35f, r);
+		foot = Primitives.makeTorus(30, 30, 0.25f, 0.2f, r);
+		smallJoint = Primitives.makeTorus(30, 30, 0f, 0.35f, r);
+		bigJoint = Primitives.makeTorus(30, 30, 0f, 0.45f, r);
+		head = Primitives.makeTorus(30, 30, 0.5f, 0.4f, r);
+		body.setMaterial(material);
+		lowerArm.setMaterial(material);
+	}
+
+	/**
+	 * Builds the scene graph of a robot with the same hierarchy as in the
+	 * robot scene.
+	 */
+	private static TransformGroup makeRobot(Vector3f position)
+	{
+		TransformGroup[] arms = new TransformGroup[2], legs = new TransformGroup[2];
+		for(int side=0; side<2; side++)
+		{
+			float sign = side == 0 ? -1 : 1;
+			TransformGroup lowerArmTrafo = new TransformGroup(new Vector3f(0, -0.5f, 0), new Node[]{new ShapeNode(lowerArm)});
+			TransformGroup elbowTrafo = new TransformGroup(new Vector3f(0, -0.45f, 0), new Node[]{lowerArmTrafo, new ShapeNode(smallJoint)});
+			TransformGroup upperArmTrafo = new TransformGroup(new Vector3f(0, -0.8f, 0), new Node[]{elbowTrafo, new ShapeNode(upperArm)});
+			arms[side] = new TransformGroup(new Vector3f(sign*1.35f, 0.25f, 0), new Node[]{upperArmTrafo, new ShapeNode(bigJoint)});
+
+			TransformGroup footTrafo = new TransformGroup(new Vector3f(0, -1, 0), new Node[]{new ShapeNode(foot)});
+			TransformGroup lowerLegTrafo = new TransformGroup(new Vector3f(0, -1.2f, 0), new Node[]{footTrafo, new ShapeNode(lowerLeg)});
+			TransformGroup kneeTrafo = new TransformGroup(new Vector3f(0, -1, 0), new Node[]{lowerLegTrafo, new ShapeNode(bigJoint)});
+			TransformGroup upperLegTrafo = new TransformGroup(new Vector3f(0, -1, 0), new Node[]{kneeTrafo, new ShapeNode(upperLeg)});
+			legs[side] = new TransformGroup(new Vector3f(sign*0.5f, -1.2f, 0), new Node[]{upperLegTrafo, new ShapeNode(bigJoint)});
+		}
+		TransformGroup headTrafo = new TransformGroup(new Vector3f(0, 1.4f, 0), new Node[]{new ShapeNode(head)});
+		return new TransformGroup(position, new Node[]{headTrafo, arms[0], arms[1], legs[0], legs[1], new ShapeNode(body)});
+	}
+}
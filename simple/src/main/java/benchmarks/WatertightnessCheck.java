@@ -0,0 +1,92 @@
+package benchmarks;
+
+import java.util.Random;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+import jrtr.Shape;
+import jrtr.SimpleSceneManager;
+import jrtr.swrenderer.SWRenderContext;
+import meshes.Primitives;
+
+/**
+ * Checks that the rasterizer of the software renderer draws closed meshes
+ * without cracks and without drawing pixels twice. A torus is rendered in
+ * the coverage count mode of the renderer, once with its front faces and
+ * once with its back faces, by reversing the order of the indices. Every
+ * ray through a pixel enters the closed torus as often as it leaves it, so
+ * every pixel has to be covered by as many front faces as back faces. A
+ * pixel on an edge between two triangles that is missed or drawn twice
+ * breaks this. The torus is rendered in a number of random poses.
+ */
+public class WatertightnessCheck {
+
+	public static void main(String[] args)
+	{
+		int poses = 100, width = 640, height = 480;
+
+		SWRenderContext renderContext = new SWRenderContext();
+		renderContext.setViewportSize(width, height);
+		renderContext.setThreadCount(1);
+		renderContext.setCoverageCountMode(true);
+
+		Shape torus = Primitives.makeTorus(30, 30, 2f, 1f, renderContext);
+		int[] indices = torus.getVertexData().getIndices();
+		SimpleSceneManager sceneManager = new SimpleSceneManager();
+		sceneManager.addShape(torus);
+		renderContext.setSceneManager(sceneManager);
+
+		Random random = new Random(1);
+		Matrix4f rotation = new Matrix4f();
+		int[] frontCounts = new int[width*height];
+		long coveredPixels = 0, brokenPixels = 0;
+		for(int i=0; i<poses; i++)
+		{
+			Matrix4f t = torus.getTransformation();
+			t.rotX(random.nextFloat()*2*(float)Math.PI);
+			rotation.rotY(random.nextFloat()*2*(float)Math.PI);
+			t.mul(rotation);
+			t.setTranslation(new Vector3f(6*random.nextFloat()-3, 6*random.nextFloat()-3, -4*random.nextFloat()));
+
+			renderContext.display();
+			renderContext.getColorBuffer().getRGB(0, 0, width, height, frontCounts, 0, width);
+
+			reverseWinding(indices);
+			renderContext.display();
+			reverseWinding(indices);
+
+			for(int y=0; y<height; y++)
+			{
+				for(int x=0; x<width; x++)
+				{
+					int front = frontCounts[y*width + x] & 0xFFFFFF;
+					int back = renderContext.getColorBuffer().getRGB(x, y) & 0xFFFFFF;
+					if(front != back)
+						brokenPixels++;
+					if(front > 0)
+						coveredPixels++;
+				}
+			}
+		}
+
+		System.out.println(brokenPixels + " of " + coveredPixels + " covered pixels in " + poses
+				+ " poses are covered by a different number of front and back faces.");
+		if(brokenPixels > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Swaps the second and third index of every triangle, which turns front
+	 * faces into back faces and vice versa.
+	 */
+	private static void reverseWinding(int[] indices)
+	{
+		for(int j=0; j+2<indices.length; j+=3)
+		{
+			int i = indices[j+1];
+			indices[j+1] = indices[j+2];
+			indices[j+2] = i;
+		}
+	}
+}
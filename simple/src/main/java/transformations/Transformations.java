@@ -241,7 +241,7 @@ public class Transformations {
 				break;
 		}
 		Vector3f relativeDirection = new Vector3f(axis.x, axis.y, axis.z);
-		translateMatrix(camera.getCameraMatrix(), relativeDirection, distance);
+		translateGlobal(camera, relativeDirection, distance);
 	}
 	
 	/**
@@ -309,7 +309,10 @@ public class Transformations {
 	{
 		assert direction.length() != 0;
 		
-		translateMatrix(camera.getCameraMatrix(), direction, distance);
+		// the camera notices only matrices that are set, see Camera#getVersion()
+		Matrix4f cameraMatrix = new Matrix4f(camera.getCameraMatrix());
+		translateMatrix(cameraMatrix, direction, distance);
+		camera.setCameraMatrix(cameraMatrix);
 	}
 	
 	/**